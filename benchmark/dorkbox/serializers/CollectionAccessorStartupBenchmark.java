@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cold-start cost (one shot per fresh JVM) of initializing the accessors for the unmodifiable and synchronized collection
+ * serializers, for each of the accessor backends.
+ * <p/>
+ * The method handle backend needs {@code java.util} to be open on java 9+, so the forks are started with --add-opens
+ * (which means this benchmark must be run on java 9+).
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 20, jvmArgsAppend = "--add-opens=java.base/java.util=ALL-UNNAMED")
+public
+class CollectionAccessorStartupBenchmark {
+
+    @Benchmark
+    public
+    void methodHandles(final Blackhole blackhole) throws Exception {
+        final CollectionAccessor unmodifiableCollection = CollectionAccessor.forField("java.util.Collections$UnmodifiableCollection", "c");
+        final CollectionAccessor unmodifiableMap = CollectionAccessor.forField("java.util.Collections$UnmodifiableMap", "m");
+        final CollectionAccessor synchronizedCollection = CollectionAccessor.forField("java.util.Collections$SynchronizedCollection", "c");
+        final CollectionAccessor synchronizedMap = CollectionAccessor.forField("java.util.Collections$SynchronizedMap", "m");
+
+        blackhole.consume(unmodifiableCollection.get(Collections.unmodifiableList(new ArrayList<Object>())));
+        blackhole.consume(unmodifiableMap.get(Collections.unmodifiableMap(new HashMap<Object, Object>())));
+        blackhole.consume(synchronizedCollection.get(Collections.synchronizedList(new ArrayList<Object>())));
+        blackhole.consume(synchronizedMap.get(Collections.synchronizedMap(new HashMap<Object, Object>())));
+    }
+
+    @Benchmark
+    public
+    void javassist(final Blackhole blackhole) {
+        JavassistAccessors.unmodifiableCollections();
+        JavassistAccessors.synchronizedCollections();
+
+        blackhole.consume(UnmodifiableCollectionJavaAccessor.UnmodifiableCollection_Field(Collections.unmodifiableList(new ArrayList<Object>())));
+        blackhole.consume(UnmodifiableCollectionJavaAccessor.UnmodifiableMap_Field(Collections.unmodifiableMap(new HashMap<Object, Object>())));
+        blackhole.consume(SynchronizedCollectionJavaAccessor.SynchronizedCollection_Field(Collections.synchronizedList(new ArrayList<Object>())));
+        blackhole.consume(SynchronizedCollectionJavaAccessor.SynchronizedMap_Field(Collections.synchronizedMap(new HashMap<Object, Object>())));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Throughput, allocation and size of the {@link UnmodifiableCollectionsSerializer} and the
+ * {@link SynchronizedCollectionsSerializer}, for wrapped lists, sets and maps of a varying size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class CollectionsSerializerBenchmark {
+
+    @Param({"unmodifiable", "synchronized"})
+    public String wrapper;
+
+    @Param({"list", "set", "map"})
+    public String collection;
+
+    @Param({"1", "16", "1024"})
+    public int size;
+
+    private Kryo kryo;
+    private Output output;
+    private Input input;
+    private Object wrapped;
+
+    @Setup
+    public
+    void setup() {
+        kryo = KryoBenchmarkSupport.newKryo();
+        UnmodifiableCollectionsSerializer.registerSerializers(kryo);
+        SynchronizedCollectionsSerializer.registerSerializers(kryo);
+
+        final boolean unmodifiable = "unmodifiable".equals(wrapper);
+
+        if ("list".equals(collection)) {
+            final List<Integer> list = new ArrayList<Integer>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(i);
+            }
+            wrapped = unmodifiable ? Collections.unmodifiableList(list) : Collections.synchronizedList(list);
+        }
+        else if ("set".equals(collection)) {
+            final Set<Integer> set = new HashSet<Integer>(size);
+            for (int i = 0; i < size; i++) {
+                set.add(i);
+            }
+            wrapped = unmodifiable ? Collections.unmodifiableSet(set) : Collections.synchronizedSet(set);
+        }
+        else {
+            final Map<Integer, Integer> map = new HashMap<Integer, Integer>(size);
+            for (int i = 0; i < size; i++) {
+                map.put(i, i);
+            }
+            wrapped = unmodifiable ? Collections.unmodifiableMap(map) : Collections.synchronizedMap(map);
+        }
+
+        output = KryoBenchmarkSupport.newOutput();
+        input = KryoBenchmarkSupport.serialize(kryo, output, wrapped);
+    }
+
+    @Benchmark
+    public
+    Output write(final SerializedSize serializedSize) {
+        output.reset();
+        kryo.writeClassAndObject(output, wrapped);
+        serializedSize.serializedBytes += output.position();
+        return output;
+    }
+
+    @Benchmark
+    public
+    Object read() {
+        input.setPosition(0);
+        return kryo.readClassAndObject(input);
+    }
+
+    @Benchmark
+    public
+    Object copy() {
+        return kryo.copy(wrapped);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers;
+
+import java.util.EnumMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Throughput, allocation and size of the {@link EnumMapSerializer}, for maps with a varying number of entries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class EnumMapSerializerBenchmark {
+
+    public
+    enum Key {
+        K00, K01, K02, K03, K04, K05, K06, K07, K08, K09, K10, K11, K12, K13, K14, K15,
+        K16, K17, K18, K19, K20, K21, K22, K23, K24, K25, K26, K27, K28, K29, K30, K31,
+        K32, K33, K34, K35, K36, K37, K38, K39, K40, K41, K42, K43, K44, K45, K46, K47,
+        K48, K49, K50, K51, K52, K53, K54, K55, K56, K57, K58, K59, K60, K61, K62, K63
+    }
+
+    /**
+     * The EnumMapSerializer read path before the enum constants were cached, used as the baseline for comparison.
+     */
+    public static
+    class UncachedEnumMapSerializer extends EnumMapSerializer {
+        @Override
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        public
+        EnumMap<? extends Enum<?>, ?> read(final Kryo kryo, final Input input, final Class<? extends EnumMap<? extends Enum<?>, ?>> type) {
+            final Class<? extends Enum<?>> keyType = kryo.readClass(input)
+                                                         .getType();
+            final EnumMap rawResult = new EnumMap(keyType);
+            final Enum<?>[] enumConstants = keyType.getEnumConstants();
+            final int size = input.readInt(true);
+            for (int i = 0; i < size; i++) {
+                final int ordinal = input.readVarInt(true);
+                rawResult.put(enumConstants[ordinal], kryo.readClassAndObject(input));
+            }
+            return rawResult;
+        }
+    }
+
+    /**
+     * "cached" is the {@link EnumMapSerializer}, "uncached" is the {@link UncachedEnumMapSerializer} baseline,
+     * "compact" is the {@link EnumMapSerializer} with the bitmap format for dense maps enabled, "homogeneous" has the
+     * homogeneous value class specialization enabled as well.
+     */
+    @Param({"cached", "uncached", "compact", "homogeneous"})
+    public String implementation;
+
+    /**
+     * The number of entries in the map (the enum has 64 constants).
+     */
+    @Param({"1", "8", "64"})
+    public int size;
+
+    private Kryo kryo;
+    private Output output;
+    private Input input;
+    private EnumMap<Key, Object> map;
+
+    @Setup
+    public
+    void setup() {
+        kryo = KryoBenchmarkSupport.newKryo();
+        if ("uncached".equals(implementation)) {
+            kryo.register(EnumMap.class, new UncachedEnumMapSerializer());
+        }
+        else {
+            final EnumMapSerializer serializer = new EnumMapSerializer();
+            serializer.setCompact("compact".equals(implementation) || "homogeneous".equals(implementation));
+            serializer.setHomogeneousValues("homogeneous".equals(implementation));
+            kryo.register(EnumMap.class, serializer);
+        }
+
+        map = new EnumMap<Key, Object>(Key.class);
+        final Key[] keys = Key.values();
+        for (int i = 0; i < size; i++) {
+            map.put(keys[i], (long) i);
+        }
+
+        output = KryoBenchmarkSupport.newOutput();
+        input = KryoBenchmarkSupport.serialize(kryo, output, map);
+    }
+
+    @Benchmark
+    public
+    Output write(final SerializedSize serializedSize) {
+        output.reset();
+        kryo.writeClassAndObject(output, map);
+        serializedSize.serializedBytes += output.position();
+        return output;
+    }
+
+    @Benchmark
+    public
+    Object read() {
+        input.setPosition(0);
+        return kryo.readClassAndObject(input);
+    }
+
+    @Benchmark
+    public
+    Object copy() {
+        return kryo.copy(map);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers;
+
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Throughput, allocation and size of the {@link FieldAnnotationAwareSerializer} field layouts, for fixtures of the tests (see
+ * {@link TestClasses}, which the build copies into the benchmark sources).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class FieldAnnotationAwareLayoutBenchmark {
+
+    /**
+     * "MyContainer" mixes primitive and object fields, "Person" only has object fields.
+     */
+    @Param({"MyContainer", "Person"})
+    public String fixture;
+
+    /**
+     * "default" is the field order of the FieldSerializer, "grouped" writes the primitive fields first.
+     */
+    @Param({"default", "grouped"})
+    public String layout;
+
+    private Kryo kryo;
+    private Output output;
+    private Input input;
+    private Object object;
+
+    @Setup
+    public
+    void setup() {
+        kryo = KryoBenchmarkSupport.newKryo();
+
+        if ("MyContainer".equals(fixture)) {
+            object = new TestClasses.MyContainer();
+        }
+        else {
+            object = TestClasses.createPerson("foo bar", TestClasses.Person.Gender.MALE, 42, "foo.bar@example.com", "foo@example.com");
+        }
+
+        final FieldAnnotationAwareSerializer<Object> serializer =
+                new FieldAnnotationAwareSerializer<Object>(kryo, object.getClass(), Collections.<Class<? extends Annotation>>emptySet(), true);
+        serializer.setGroupedLayout("grouped".equals(layout));
+        kryo.register(object.getClass(), serializer);
+
+        output = KryoBenchmarkSupport.newOutput();
+        input = KryoBenchmarkSupport.serialize(kryo, output, object);
+    }
+
+    @Benchmark
+    public
+    Output write(final SerializedSize serializedSize) {
+        output.reset();
+        kryo.writeClassAndObject(output, object);
+        serializedSize.serializedBytes += output.position();
+        return output;
+    }
+
+    @Benchmark
+    public
+    Object read() {
+        input.setPosition(0);
+        return kryo.readClassAndObject(input);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers;
+
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Throughput and allocation of the {@link FieldAnnotationAwareSerializer}, for a DTO with 30 primitive fields (and one
+ * annotated, ignored field).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class FieldAnnotationAwarePrimitivesBenchmark {
+
+    public static
+    class Dto {
+        int int00;
+        long long01;
+        double double02;
+        float float03;
+        boolean boolean04;
+        short short05;
+        int int06;
+        long long07;
+        double double08;
+        float float09;
+        boolean boolean10;
+        short short11;
+        int int12;
+        long long13;
+        double double14;
+        float float15;
+        boolean boolean16;
+        short short17;
+        int int18;
+        long long19;
+        double double20;
+        float float21;
+        boolean boolean22;
+        short short23;
+        int int24;
+        long long25;
+        double double26;
+        float float27;
+        boolean boolean28;
+        short short29;
+
+        @FieldAnnotationAwareSerializerBenchmark.Ignored
+        Object ignored;
+    }
+
+    private Kryo kryo;
+    private Output output;
+    private Input input;
+    private Dto dto;
+
+    @Setup
+    public
+    void setup() {
+        kryo = KryoBenchmarkSupport.newKryo();
+        kryo.addDefaultSerializer(Dto.class,
+                                  new FieldAnnotationAwareSerializer.Factory(Collections.<Class<? extends Annotation>>singletonList(FieldAnnotationAwareSerializerBenchmark.Ignored.class),
+                                                                             true));
+
+        dto = new Dto();
+        dto.int00 = 0 * 1000;
+        dto.long01 = 1 * 100000000L;
+        dto.double02 = 2 * Math.PI;
+        dto.float03 = 3 * 1.5f;
+        dto.boolean04 = true;
+        dto.short05 = (short) 5;
+        dto.int06 = 6 * 1000;
+        dto.long07 = 7 * 100000000L;
+        dto.double08 = 8 * Math.PI;
+        dto.float09 = 9 * 1.5f;
+        dto.boolean10 = true;
+        dto.short11 = (short) 11;
+        dto.int12 = 12 * 1000;
+        dto.long13 = 13 * 100000000L;
+        dto.double14 = 14 * Math.PI;
+        dto.float15 = 15 * 1.5f;
+        dto.boolean16 = true;
+        dto.short17 = (short) 17;
+        dto.int18 = 18 * 1000;
+        dto.long19 = 19 * 100000000L;
+        dto.double20 = 20 * Math.PI;
+        dto.float21 = 21 * 1.5f;
+        dto.boolean22 = true;
+        dto.short23 = (short) 23;
+        dto.int24 = 24 * 1000;
+        dto.long25 = 25 * 100000000L;
+        dto.double26 = 26 * Math.PI;
+        dto.float27 = 27 * 1.5f;
+        dto.boolean28 = true;
+        dto.short29 = (short) 29;
+        dto.ignored = new Object();
+
+        output = KryoBenchmarkSupport.newOutput();
+        input = KryoBenchmarkSupport.serialize(kryo, output, dto);
+    }
+
+    @Benchmark
+    public
+    Output write(final SerializedSize serializedSize) {
+        output.reset();
+        kryo.writeClassAndObject(output, dto);
+        serializedSize.serializedBytes += output.position();
+        return output;
+    }
+
+    @Benchmark
+    public
+    Object read() {
+        input.setPosition(0);
+        return kryo.readClassAndObject(input);
+    }
+}
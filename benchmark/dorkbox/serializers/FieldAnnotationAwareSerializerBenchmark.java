@@ -0,0 +1,140 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Throughput, allocation and size of the {@link FieldAnnotationAwareSerializer}, for a bean that mixes primitive,
+ * object and annotated (ignored) fields, with a varying payload size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class FieldAnnotationAwareSerializerBenchmark {
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.FIELD)
+    public
+    @interface Ignored {
+    }
+
+    public static
+    class Bean {
+        int intValue;
+        long longValue;
+        double doubleValue;
+        boolean booleanValue;
+        String name;
+        int[] values;
+
+        @Ignored
+        Object ignored;
+    }
+
+    /**
+     * The length of the string and of the array payload of the bean.
+     */
+    @Param({"1", "64", "4096"})
+    public int size;
+
+    private Kryo kryo;
+    private Output output;
+    private Input input;
+    private Bean bean;
+
+    @Setup
+    public
+    void setup() {
+        kryo = KryoBenchmarkSupport.newKryo();
+        kryo.addDefaultSerializer(Bean.class,
+                                  new FieldAnnotationAwareSerializer.Factory(Collections.<Class<? extends Annotation>>singletonList(Ignored.class),
+                                                                             true));
+
+        final StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            builder.append((char) ('a' + (i % 26)));
+        }
+
+        bean = new Bean();
+        bean.intValue = 42;
+        bean.longValue = Long.MAX_VALUE / 3;
+        bean.doubleValue = Math.PI;
+        bean.booleanValue = true;
+        bean.name = builder.toString();
+        bean.values = new int[size];
+        for (int i = 0; i < size; i++) {
+            bean.values[i] = i;
+        }
+        bean.ignored = new Object();
+
+        output = KryoBenchmarkSupport.newOutput();
+        input = KryoBenchmarkSupport.serialize(kryo, output, bean);
+
+        // otherwise this would not measure disregarding a field at all
+        if (((Bean) kryo.readClassAndObject(input)).ignored != null) {
+            throw new IllegalStateException("The @Ignored field was serialized");
+        }
+    }
+
+    @Benchmark
+    public
+    Output write(final SerializedSize serializedSize) {
+        output.reset();
+        kryo.writeClassAndObject(output, bean);
+        serializedSize.serializedBytes += output.position();
+        return output;
+    }
+
+    @Benchmark
+    public
+    Object read() {
+        input.setPosition(0);
+        return kryo.readClassAndObject(input);
+    }
+
+    @Benchmark
+    public
+    Object copy() {
+        return kryo.copy(bean);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.esotericsoftware.kryo.Kryo;
+
+/**
+ * Startup cost of the {@link FieldAnnotationAwareSerializer.Factory}, when registering 5,000 classes in each of 16 Kryo
+ * instances (for example, one Kryo instance per thread).
+ * <p/>
+ * The 5,000 distinct classes are the same template class, defined by 5,000 class loaders. New classes are defined for
+ * every iteration, so that every iteration starts without cached annotations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public
+class FieldAnnotationAwareStartupBenchmark {
+
+    private static final int CLASSES = 5000;
+    private static final int KRYO_INSTANCES = 16;
+
+    public static
+    class Template {
+        @Deprecated
+        int first;
+        long second;
+        double third;
+        String fourth;
+        @Deprecated
+        Object fifth;
+        int[] sixth;
+
+        @FieldAnnotationAwareSerializerBenchmark.Ignored
+        Object ignored;
+        @FieldAnnotationAwareSerializerBenchmark.Ignored
+        @Deprecated
+        Object alsoIgnored;
+    }
+
+    private static final
+    class TemplateLoader extends ClassLoader {
+        TemplateLoader(final ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(final byte[] bytes) {
+            return defineClass(Template.class.getName(), bytes, 0, bytes.length);
+        }
+    }
+
+    private byte[] templateBytes;
+    private Class<?>[] classes;
+
+    @Setup(Level.Trial)
+    public
+    void loadTemplate() throws IOException {
+        final InputStream inputStream = Template.class.getResourceAsStream("/" + Template.class.getName().replace('.', '/') + ".class");
+        try {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            templateBytes = outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public
+    void defineClasses() {
+        classes = new Class<?>[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            classes[i] = new TemplateLoader(Template.class.getClassLoader()).define(templateBytes);
+        }
+    }
+
+    @Benchmark
+    public
+    void register(final Blackhole blackhole) {
+        final FieldAnnotationAwareSerializer.Factory factory =
+                new FieldAnnotationAwareSerializer.Factory(Collections.<Class<? extends Annotation>>singletonList(FieldAnnotationAwareSerializerBenchmark.Ignored.class),
+                                                           true);
+
+        for (int i = 0; i < KRYO_INSTANCES; i++) {
+            final Kryo kryo = KryoBenchmarkSupport.newKryo();
+            kryo.setDefaultSerializer(factory);
+            for (final Class<?> type : classes) {
+                kryo.register(type);
+            }
+            blackhole.consume(kryo);
+        }
+    }
+}
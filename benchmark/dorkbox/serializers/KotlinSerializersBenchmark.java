@@ -0,0 +1,122 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers;
+
+import java.io.File;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Throughput, allocation and size of the serializers that are written in kotlin ({@link FileSerializer},
+ * {@link Inet4AddressSerializer}, {@link Inet6AddressSerializer}, {@link RegexSerializer} and {@link ZoneIdSerializer}).
+ * <p/>
+ * There is no "copy" benchmark, because these types are immutable (copy returns the original).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class KotlinSerializersBenchmark {
+
+    @Param({"File", "Inet4Address", "Inet6Address", "Pattern", "ZoneId"})
+    public String type;
+
+    /**
+     * The length of the path/regex payload. Ignored by the fixed-size types.
+     */
+    @Param({"8", "256"})
+    public int size;
+
+    private Kryo kryo;
+    private Output output;
+    private Input input;
+    private Object value;
+
+    @Setup
+    public
+    void setup() throws Exception {
+        kryo = KryoBenchmarkSupport.newKryo();
+        kryo.register(File.class, new FileSerializer());
+        kryo.register(Inet4Address.class, new Inet4AddressSerializer());
+        kryo.register(Inet6Address.class, new Inet6AddressSerializer());
+        kryo.register(Pattern.class, new RegexSerializer());
+        kryo.addDefaultSerializer(ZoneId.class, new ZoneIdSerializer());
+
+        final StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            builder.append((char) ('a' + (i % 26)));
+        }
+        final String payload = builder.toString();
+
+        if ("File".equals(type)) {
+            value = new File("/tmp/" + payload);
+        }
+        else if ("Inet4Address".equals(type)) {
+            value = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+        }
+        else if ("Inet6Address".equals(type)) {
+            value = InetAddress.getByName("2001:db8::1");
+        }
+        else if ("Pattern".equals(type)) {
+            value = Pattern.compile("^" + payload + "[0-9]+$", Pattern.CASE_INSENSITIVE);
+        }
+        else {
+            value = ZoneId.of("Europe/Berlin");
+        }
+
+        output = KryoBenchmarkSupport.newOutput();
+        input = KryoBenchmarkSupport.serialize(kryo, output, value);
+    }
+
+    @Benchmark
+    public
+    Output write(final SerializedSize serializedSize) {
+        output.reset();
+        kryo.writeClassAndObject(output, value);
+        serializedSize.serializedBytes += output.position();
+        return output;
+    }
+
+    @Benchmark
+    public
+    Object read() {
+        input.setPosition(0);
+        return kryo.readClassAndObject(input);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers;
+
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultInstantiatorStrategy;
+
+/**
+ * Shared setup for the JMH benchmarks, so that every benchmark measures the serializer and not the harness.
+ */
+public final
+class KryoBenchmarkSupport {
+    /**
+     * Large enough for the biggest parametrized payload, so the output never has to grow during a measurement.
+     */
+    public static final int BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private
+    KryoBenchmarkSupport() {
+    }
+
+    public static
+    Kryo newKryo() {
+        final Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setReferences(true);
+
+        final DefaultInstantiatorStrategy instantiatorStrategy = new DefaultInstantiatorStrategy();
+        instantiatorStrategy.setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
+        kryo.setInstantiatorStrategy(instantiatorStrategy);
+
+        return kryo;
+    }
+
+    public static
+    Output newOutput() {
+        return new Output(BUFFER_SIZE, -1);
+    }
+
+    /**
+     * Writes the object once, and returns a reusable input over the written bytes for the "read" benchmarks.
+     */
+    public static
+    Input serialize(final Kryo kryo, final Output output, final Object object) {
+        output.reset();
+        kryo.writeClassAndObject(output, object);
+
+        final byte[] bytes = output.toBytes();
+        return new Input(bytes);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Throughput and allocation of the type dispatch in the {@link UnmodifiableCollectionsSerializer} and the
+ * {@link SynchronizedCollectionsSerializer}, for a graph that contains every supported wrapper type (small collections,
+ * so that the dispatch is not hidden by the cost of the contents).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class MixedCollectionsSerializerBenchmark {
+
+    @Param({"4"})
+    public int size;
+
+    /**
+     * "ordinal" uses one serializer for all wrapper types (writing the ordinal of the type), "dedicated" uses one
+     * serializer per wrapper type.
+     */
+    @Param({"ordinal", "dedicated"})
+    public String registration;
+
+    private Kryo kryo;
+    private Output output;
+    private Input input;
+    private List<Object> wrappers;
+
+    @Setup
+    public
+    void setup() {
+        kryo = KryoBenchmarkSupport.newKryo();
+        if ("dedicated".equals(registration)) {
+            UnmodifiableCollectionsSerializer.registerDedicatedSerializers(kryo);
+            SynchronizedCollectionsSerializer.registerDedicatedSerializers(kryo);
+        }
+        else {
+            UnmodifiableCollectionsSerializer.registerSerializers(kryo);
+            SynchronizedCollectionsSerializer.registerSerializers(kryo);
+        }
+
+        final List<Integer> arrayList = new ArrayList<Integer>();
+        final List<Integer> linkedList = new LinkedList<Integer>();
+        final HashSet<Integer> hashSet = new HashSet<Integer>();
+        final TreeSet<Integer> treeSet = new TreeSet<Integer>();
+        final Map<Integer, Integer> hashMap = new HashMap<Integer, Integer>();
+        final TreeMap<Integer, Integer> treeMap = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < size; i++) {
+            arrayList.add(i);
+            linkedList.add(i);
+            hashSet.add(i);
+            treeSet.add(i);
+            hashMap.put(i, i);
+            treeMap.put(i, i);
+        }
+        final Collection<Integer> collection = new ArrayList<Integer>(arrayList);
+
+        wrappers = new ArrayList<Object>();
+        wrappers.add(Collections.unmodifiableCollection(collection));
+        wrappers.add(Collections.unmodifiableList(arrayList));
+        wrappers.add(Collections.unmodifiableList(linkedList));
+        wrappers.add(Collections.unmodifiableSet(hashSet));
+        wrappers.add(Collections.unmodifiableSortedSet(treeSet));
+        wrappers.add(Collections.unmodifiableMap(hashMap));
+        wrappers.add(Collections.unmodifiableSortedMap(treeMap));
+        wrappers.add(Collections.synchronizedCollection(collection));
+        wrappers.add(Collections.synchronizedList(arrayList));
+        wrappers.add(Collections.synchronizedList(linkedList));
+        wrappers.add(Collections.synchronizedSet(hashSet));
+        wrappers.add(Collections.synchronizedSortedSet(treeSet));
+        wrappers.add(Collections.synchronizedMap(hashMap));
+        wrappers.add(Collections.synchronizedSortedMap(treeMap));
+
+        output = KryoBenchmarkSupport.newOutput();
+        input = KryoBenchmarkSupport.serialize(kryo, output, wrappers);
+    }
+
+    @Benchmark
+    public
+    Output write(final SerializedSize serializedSize) {
+        output.reset();
+        kryo.writeClassAndObject(output, wrappers);
+        serializedSize.serializedBytes += output.position();
+        return output;
+    }
+
+    @Benchmark
+    public
+    Object read() {
+        input.setPosition(0);
+        return kryo.readClassAndObject(input);
+    }
+
+    @Benchmark
+    public
+    Object copy() {
+        return kryo.copy(wrappers);
+    }
+}
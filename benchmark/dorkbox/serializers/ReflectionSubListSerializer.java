@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * The baseline for {@link SubListSerializersBenchmark}: writes the same format as the {@link SubListSerializers} (the root list,
+ * the offset into the root list and the end index), but reads the sublist fields via reflection.
+ * <p/>
+ * Only supports the java 9+ sublists, which reference the root list directly.
+ */
+final
+class ReflectionSubListSerializer extends Serializer<List<?>> {
+
+    private final Field _rootField;
+    private final Field _offsetField;
+    private final Field _sizeField;
+
+    ReflectionSubListSerializer(final Class<?> subListClass) {
+        try {
+            _rootField = subListClass.getDeclaredField("root");
+            _offsetField = subListClass.getDeclaredField("offset");
+            _sizeField = subListClass.getDeclaredField("size");
+        } catch (final NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        }
+
+        _rootField.setAccessible(true);
+        _offsetField.setAccessible(true);
+        _sizeField.setAccessible(true);
+    }
+
+    @Override
+    public
+    void write(final Kryo kryo, final Output output, final List<?> obj) {
+        try {
+            kryo.writeClassAndObject(output, _rootField.get(obj));
+            final int fromIndex = _offsetField.getInt(obj);
+            output.writeInt(fromIndex, true);
+            output.writeInt(fromIndex + _sizeField.getInt(obj), true);
+        } catch (final IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public
+    List<?> read(final Kryo kryo, final Input input, final Class<? extends List<?>> type) {
+        final List<?> list = (List<?>) kryo.readClassAndObject(input);
+        final int fromIndex = input.readInt(true);
+        final int toIndex = input.readInt(true);
+        return list.subList(fromIndex, toIndex);
+    }
+
+    @Override
+    public
+    List<?> copy(final Kryo kryo, final List<?> original) {
+        try {
+            final int fromIndex = _offsetField.getInt(original);
+            final List<?> list = (List<?>) _rootField.get(original);
+            return kryo.copy(list).subList(fromIndex, fromIndex + _sizeField.getInt(original));
+        } catch (final IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
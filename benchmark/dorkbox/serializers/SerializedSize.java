@@ -0,0 +1,42 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the bytes written by a "write" benchmark, as a secondary result of that benchmark (so it is part of the JMH results,
+ * including the JSON report).
+ * <p/>
+ * This is an operations counter: it is reported in the same unit as the (throughput) score, so it is the number of serialized
+ * bytes per time unit. Divided by the score, that is the serialized size of one invocation.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public
+class SerializedSize {
+    public long serializedBytes;
+
+    @Setup(Level.Iteration)
+    public
+    void reset() {
+        serializedBytes = 0;
+    }
+}
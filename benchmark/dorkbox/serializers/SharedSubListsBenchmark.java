@@ -0,0 +1,108 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Throughput, allocation and size of the {@link SubListSerializers} (with references enabled), for a graph of 256 entries
+ * that share a varying number of distinct sublists of the same parent list.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.util=ALL-UNNAMED")
+public
+class SharedSubListsBenchmark {
+
+    /**
+     * The number of distinct sublists in the graph (every sublist occurs 256 / distinct times).
+     */
+    @Param({"1", "16", "256"})
+    public int distinct;
+
+    private Kryo kryo;
+    private Output output;
+    private Input input;
+    private List<List<Integer>> graph;
+
+    @Setup
+    public
+    void setup() {
+        kryo = KryoBenchmarkSupport.newKryo();
+        SubListSerializers.addDefaultSerializers(kryo);
+
+        final List<Integer> parent = new ArrayList<Integer>(1024);
+        for (int i = 0; i < 1024; i++) {
+            parent.add(i);
+        }
+
+        final List<List<Integer>> subLists = new ArrayList<List<Integer>>(distinct);
+        for (int i = 0; i < distinct; i++) {
+            subLists.add(parent.subList(i, i + 10));
+        }
+
+        graph = new ArrayList<List<Integer>>(256);
+        for (int i = 0; i < 256; i++) {
+            graph.add(subLists.get(i % distinct));
+        }
+
+        output = KryoBenchmarkSupport.newOutput();
+        input = KryoBenchmarkSupport.serialize(kryo, output, graph);
+    }
+
+    @Benchmark
+    public
+    Output write(final SerializedSize serializedSize) {
+        output.reset();
+        kryo.writeClassAndObject(output, graph);
+        serializedSize.serializedBytes += output.position();
+        return output;
+    }
+
+    @Benchmark
+    public
+    Object read() {
+        input.setPosition(0);
+        return kryo.readClassAndObject(input);
+    }
+
+    @Benchmark
+    public
+    Object copy() {
+        return kryo.copy(graph);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Throughput, allocation and size of the {@link SubListSerializers}, for a 10 element window over parent lists
+ * of a varying size.
+ * <p/>
+ * The serializers need {@code java.util} to be open on java 9+, so the fork is started with --add-opens.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.util=ALL-UNNAMED")
+public
+class SubListSerializersBenchmark {
+
+    /**
+     * "ArrayList" is represented by ArrayList$SubList, "LinkedList" by AbstractList$SubList (java 9+).
+     */
+    @Param({"ArrayList", "LinkedList"})
+    public String parentType;
+
+    @Param({"16", "1024", "65536"})
+    public int parentSize;
+
+    /**
+     * "parent" writes/copies the entire parent list (the default), "windowOnly" only the visible window. "reflection" is the
+     * baseline for "parent": the same format, but the sublist fields are read via reflection (instead of MethodHandles).
+     */
+    @Param({"parent", "windowOnly", "reflection"})
+    public String serializer;
+
+    private Kryo kryo;
+    private Output output;
+    private Input input;
+    private List<Integer> subList;
+
+    @Setup
+    public
+    void setup() {
+        kryo = KryoBenchmarkSupport.newKryo();
+        if ("reflection".equals(serializer)) {
+            kryo.addDefaultSerializer(SubListSerializers.ArrayListSubListSerializer.SUBLIST_CLASS,
+                                      new ReflectionSubListSerializer(SubListSerializers.ArrayListSubListSerializer.SUBLIST_CLASS));
+            kryo.addDefaultSerializer(SubListSerializers.AbstractListSubListSerializer.SUBLIST_CLASS,
+                                      new ReflectionSubListSerializer(SubListSerializers.AbstractListSubListSerializer.SUBLIST_CLASS));
+        }
+        else {
+            final boolean windowOnly = "windowOnly".equals(serializer);
+
+            final SubListSerializers.ArrayListSubListSerializer arrayListSerializer = new SubListSerializers.ArrayListSubListSerializer();
+            arrayListSerializer.setWindowOnly(windowOnly);
+            arrayListSerializer.setCopyWindowOnly(windowOnly);
+            kryo.addDefaultSerializer(SubListSerializers.ArrayListSubListSerializer.SUBLIST_CLASS, arrayListSerializer);
+
+            final SubListSerializers.AbstractListSubListSerializer abstractListSerializer = new SubListSerializers.AbstractListSubListSerializer();
+            abstractListSerializer.setWindowOnly(windowOnly);
+            abstractListSerializer.setCopyWindowOnly(windowOnly);
+            kryo.addDefaultSerializer(SubListSerializers.AbstractListSubListSerializer.SUBLIST_CLASS, abstractListSerializer);
+        }
+
+        final List<Integer> parent = "ArrayList".equals(parentType) ? new ArrayList<Integer>(parentSize) : new LinkedList<Integer>();
+        for (int i = 0; i < parentSize; i++) {
+            parent.add(i);
+        }
+
+        final int from = parentSize / 2 - 5;
+        subList = parent.subList(from, from + 10);
+
+        output = KryoBenchmarkSupport.newOutput();
+        input = KryoBenchmarkSupport.serialize(kryo, output, subList);
+    }
+
+    @Benchmark
+    public
+    Output write(final SerializedSize serializedSize) {
+        output.reset();
+        kryo.writeClassAndObject(output, subList);
+        serializedSize.serializedBytes += output.position();
+        return output;
+    }
+
+    @Benchmark
+    public
+    Object read() {
+        input.setPosition(0);
+        return kryo.readClassAndObject(input);
+    }
+
+    @Benchmark
+    public
+    Object copy() {
+        return kryo.copy(subList);
+    }
+}
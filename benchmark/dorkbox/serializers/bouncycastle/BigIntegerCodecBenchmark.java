@@ -0,0 +1,110 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers.bouncycastle;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.bouncycastle.crypto.params.RSAPrivateCrtKeyParameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import dorkbox.serializers.KryoBenchmarkSupport;
+
+/**
+ * Allocation (see gc.alloc.rate.norm) and throughput of reading with the {@link BigIntegerCodec}, for the 8 components of an
+ * RSA private key. Writing is always via {@link BigInteger#toByteArray()}, so there is nothing to compare there.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class BigIntegerCodecBenchmark {
+
+    @Param({"2048", "4096"})
+    public int bits;
+
+    /**
+     * "codec" is the {@link BigIntegerCodec}, "toByteArray" is the decoding via temporary arrays that it replaced.
+     */
+    @Param({"codec", "toByteArray"})
+    public String encoding;
+
+    private int components;
+    private Kryo kryo;
+    private Input input;
+
+    @Setup
+    public
+    void setup() {
+        // deterministic, so that every run benchmarks the same key
+        final RSAKeyPairGenerator generator = new RSAKeyPairGenerator();
+        generator.init(new RSAKeyGenerationParameters(BigInteger.valueOf(0x10001), new SecureRandom(new byte[] {42}), bits, 12));
+        final RSAPrivateCrtKeyParameters key = (RSAPrivateCrtKeyParameters) generator.generateKeyPair().getPrivate();
+
+        final BigInteger[] values = new BigInteger[] {key.getDP(), key.getDQ(), key.getExponent(), key.getModulus(), key.getP(),
+                                                      key.getPublicExponent(), key.getQ(), key.getQInv()};
+        components = values.length;
+        kryo = new Kryo();
+
+        final Output output = KryoBenchmarkSupport.newOutput();
+        for (final BigInteger value : values) {
+            BigIntegerCodec.write(output, value);
+        }
+        input = new Input(output.toBytes());
+    }
+
+    @Benchmark
+    public
+    void read(final Blackhole blackhole) {
+        input.setPosition(0);
+        if ("codec".equals(encoding)) {
+            // one key per object graph, so the scratch buffer is allocated once per key (as it is by the key serializers)
+            kryo.reset();
+            for (int i = 0; i < components; i++) {
+                blackhole.consume(BigIntegerCodec.read(kryo, input));
+            }
+        }
+        else {
+            for (int i = 0; i < components; i++) {
+                final int length = input.readInt(true);
+                final byte[] bytes = new byte[length];
+                input.readBytes(bytes, 0, length);
+                blackhole.consume(new BigInteger(bytes));
+            }
+        }
+    }
+}
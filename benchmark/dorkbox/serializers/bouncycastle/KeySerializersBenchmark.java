@@ -0,0 +1,140 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers.bouncycastle;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.generators.ECKeyPairGenerator;
+import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECKeyGenerationParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.bouncycastle.crypto.params.RSAKeyParameters;
+import org.bouncycastle.crypto.params.RSAPrivateCrtKeyParameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import dorkbox.serializers.KryoBenchmarkSupport;
+import dorkbox.serializers.SerializedSize;
+
+/**
+ * Throughput, allocation and size of the bouncycastle key serializers, for RSA keys of different strength and ECC keys
+ * on different named curves.
+ * <p/>
+ * There is no "copy" benchmark, because these serializers do not support copying.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public
+class KeySerializersBenchmark {
+
+    /**
+     * "RSA-n" is an RSA key with n bits, "EC-name" is an ECC key on the named curve.
+     */
+    @Param({"RSA-2048", "RSA-4096", "EC-secp256r1", "EC-secp384r1", "EC-curve25519"})
+    public String key;
+
+    @Param({"public", "private"})
+    public String visibility;
+
+    /**
+     * "compressed" writes the ECC public key points in compressed form (this has no effect on the other keys).
+     */
+    @Param({"uncompressed", "compressed"})
+    public String points;
+
+    private Kryo kryo;
+    private Output output;
+    private Input input;
+    private Object value;
+
+    @Setup
+    public
+    void setup() {
+        kryo = KryoBenchmarkSupport.newKryo();
+        kryo.register(RSAKeyParameters.class, new RsaPublicKeySerializer());
+        kryo.register(RSAPrivateCrtKeyParameters.class, new RsaPrivateKeySerializer());
+        final EccPublicKeySerializer eccPublicKeySerializer = new EccPublicKeySerializer();
+        eccPublicKeySerializer.setCompressedPoints("compressed".equals(points));
+        kryo.register(ECPublicKeyParameters.class, eccPublicKeySerializer);
+        kryo.register(ECPrivateKeyParameters.class, new EccPrivateKeySerializer());
+
+        // deterministic, so that every run benchmarks the same keys
+        final SecureRandom random = new SecureRandom(new byte[] {42});
+
+        final AsymmetricCipherKeyPair keyPair;
+        if (key.startsWith("RSA-")) {
+            final int bits = Integer.parseInt(key.substring("RSA-".length()));
+
+            final RSAKeyPairGenerator generator = new RSAKeyPairGenerator();
+            generator.init(new RSAKeyGenerationParameters(BigInteger.valueOf(0x10001), random, bits, 12));
+            keyPair = generator.generateKeyPair();
+        }
+        else {
+            final X9ECParameters x9Curve = CustomNamedCurves.getByName(key.substring("EC-".length()));
+            final ECDomainParameters domain = new ECDomainParameters(x9Curve.getCurve(), x9Curve.getG(), x9Curve.getN(), x9Curve.getH());
+
+            final ECKeyPairGenerator generator = new ECKeyPairGenerator();
+            generator.init(new ECKeyGenerationParameters(domain, random));
+            keyPair = generator.generateKeyPair();
+        }
+
+        value = "public".equals(visibility) ? keyPair.getPublic() : keyPair.getPrivate();
+
+        output = KryoBenchmarkSupport.newOutput();
+        input = KryoBenchmarkSupport.serialize(kryo, output, value);
+    }
+
+    @Benchmark
+    public
+    Output write(final SerializedSize serializedSize) {
+        output.reset();
+        kryo.writeClassAndObject(output, value);
+        serializedSize.serializedBytes += output.position();
+        return output;
+    }
+
+    @Benchmark
+    public
+    Object read() {
+        input.setPosition(0);
+        return kryo.readClassAndObject(input);
+    }
+}
@@ -103,8 +103,10 @@ dependencies {
     api("com.dorkbox:Updates:1.1")
 
 
-    // how we bypass using reflection to access fields
-    api("org.javassist:javassist:3.29.2-GA")
+    // how we bypass using reflection to access fields when java.util is not open to us (the MethodHandle accessors are used
+    // otherwise). This rewrites the accessor classes at runtime, so it still generates bytecode. It is optional: projects that
+    // do not open java.util must add it themselves, or the collection serializers fail with an explanation.
+    compileOnly("org.javassist:javassist:3.29.2-GA")
 
 
     val jnaVersion = "5.12.1"
@@ -120,11 +122,109 @@ dependencies {
     compileOnly("org.bouncycastle:bcprov-jdk15on:$bcVersion")
 
 
+    testImplementation("org.javassist:javassist:3.29.2-GA")
     testImplementation("org.bouncycastle:bcprov-jdk15on:$bcVersion")
     testImplementation("junit:junit:4.13.2")
     testImplementation("com.esotericsoftware:kryo:5.5.0")
 }
 
+
+///////////////////////////////
+//////    GRAALVM NATIVE-IMAGE
+////// The private JDK fields that are read via MethodHandles (see CollectionAccessor and SubListSerializers). This is generated at build time and
+////// bundled into the jar, so that native-image permits the MethodHandle backend. Only the MethodHandle backend avoids generating
+////// bytecode at runtime, the javassist fallback does not.
+///////////////////////////////
+val reflectedFields = mapOf(
+    "java.util.Collections\$UnmodifiableCollection" to listOf("c"),
+    "java.util.Collections\$UnmodifiableMap" to listOf("m"),
+    "java.util.Collections\$SynchronizedCollection" to listOf("c"),
+    "java.util.Collections\$SynchronizedMap" to listOf("m"),
+    "java.util.EnumMap" to listOf("keyType"),
+    "java.util.ArrayList\$SubList" to listOf("root", "offset", "size"),
+    "java.util.AbstractList\$SubList" to listOf("root", "offset", "size")
+)
+
+val generateNativeImageConfig by tasks.registering {
+    group = "build"
+    description = "Generates the GraalVM native-image reflection configuration for the accessed JDK fields"
+
+    val outputDir = layout.buildDirectory.dir("generated/native-image")
+    inputs.property("reflectedFields", reflectedFields)
+    outputs.dir(outputDir)
+
+    doLast {
+        val json = reflectedFields.entries.joinToString(",\n", "[\n", "\n]\n") { (className, fields) ->
+            val fieldsJson = fields.joinToString(", ") { "{ \"name\": \"$it\", \"allowWrite\": false }" }
+            "  {\n    \"name\": \"$className\",\n    \"fields\": [ $fieldsJson ]\n  }"
+        }
+
+        val file = outputDir.get().file("META-INF/native-image/${Extras.group}/${Extras.id}/reflect-config.json").asFile
+        file.parentFile.mkdirs()
+        file.writeText(json)
+    }
+}
+
+sourceSets.main.get().resources.srcDir(generateNativeImageConfig)
+
+///////////////////////////////
+//////    JMH BENCHMARKS
+////// RUN : './gradlew jmh'  (optionally with -Pjmh.include=<regex> to only run some of the benchmarks)
+///////////////////////////////
+val jmhVersion = "1.37"
+
+// the benchmarks use the fixtures of the tests, but not the test output (or the test dependencies), so only the source of the
+// fixtures is copied into the jmh source set
+val jmhTestFixtures by tasks.registering(Sync::class) {
+    from("test") {
+        include("dorkbox/serializers/TestClasses.java")
+    }
+    into(layout.buildDirectory.dir("generated/jmh-fixtures"))
+}
+
+val jmh: SourceSet by sourceSets.creating {
+    java.setSrcDirs(listOf("benchmark"))
+    java.srcDir(jmhTestFixtures)
+    resources.setSrcDirs(emptyList<String>())
+
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+// the JMH annotation processor runs on the whole source set, and does not claim the annotations of the benchmarked fixtures
+tasks.named<JavaCompile>(jmh.compileJavaTaskName) {
+    options.compilerArgs.add("-Xlint:-processing")
+}
+
+configurations["jmhImplementation"].extendsFrom(configurations.implementation.get())
+configurations["jmhRuntimeOnly"].extendsFrom(configurations.runtimeOnly.get())
+
+dependencies {
+    // the optional dependencies of the serializers (compileOnly for main)
+    "jmhImplementation"("com.esotericsoftware:kryo:5.5.0")
+    "jmhImplementation"("org.javassist:javassist:3.29.2-GA")
+    "jmhImplementation"("org.bouncycastle:bcprov-jdk15on:1.70")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:$jmhVersion")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
+}
+
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks for all serializers, including the GC profiler (gc.alloc.rate.norm)"
+
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+
+    val resultFile = layout.buildDirectory.file("reports/jmh/results.json").get().asFile
+    doFirst {
+        resultFile.parentFile.mkdirs()
+    }
+
+    val include = (project.findProperty("jmh.include") as String?) ?: ".*"
+    args = listOf(include, "-prof", "gc", "-rf", "json", "-rff", resultFile.absolutePath)
+}
+
 publishToSonatype {
     groupId = Extras.group
     artifactId = Extras.id
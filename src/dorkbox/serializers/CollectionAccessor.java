@@ -0,0 +1,138 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dorkbox.serializers;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Reads the (private) wrapped collection/map out of a JDK wrapper instance, for example the collection that is wrapped by
+ * {@link java.util.Collections#unmodifiableList(java.util.List)}.
+ * <p/>
+ * There are two backends:
+ * <ul>
+ *     <li>{@link #forField(String, String)} uses a {@link MethodHandle} getter. There is no bytecode generation (so class-init
+ *     is cheap), but on java 9+ it requires {@code java.util} to be open to this module (for example via
+ *     {@code --add-opens java.base/java.util=ALL-UNNAMED})</li>
+ *     <li>the javassist backend (see the serializers), which rewrites the *JavaAccessor classes at runtime, and works without
+ *     opening {@code java.util}. This still generates bytecode at runtime, and javassist is an optional dependency</li>
+ * </ul>
+ * The serializers try the MethodHandle backend first, and fall back to the javassist backend when it is not permitted. The
+ * MethodHandle backend is precompiled, so when it is permitted there is no bytecode generation at runtime at all (and
+ * javassist does not need to be on the classpath).
+ */
+abstract
+class CollectionAccessor {
+
+    /**
+     * MethodHandles.privateLookupIn() only exists on java 9+, and we compile for java 8.
+     */
+    private static final Method PRIVATE_LOOKUP_IN = getPrivateLookupIn();
+
+    private static
+    Method getPrivateLookupIn() {
+        try {
+            return MethodHandles.class.getMethod("privateLookupIn", Class.class, MethodHandles.Lookup.class);
+        } catch (final Exception ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * @return an accessor that reads the specified field via a {@link MethodHandle}
+     *
+     * @throws Exception if the field does not exist, or if we are not permitted to access it (on java 9+ when {@code java.util}
+     *                   is not open to this module)
+     */
+    static
+    CollectionAccessor forField(final String className, final String fieldName) throws Exception {
+        final Class<?> type = Class.forName(className);
+        final Field field = type.getDeclaredField(fieldName);
+
+        final MethodHandle getter = unreflectGetter(field);
+        return new MethodHandleAccessor(getter.asType(MethodType.methodType(Object.class, Object.class)));
+    }
+
+    /**
+     * @return a {@link MethodHandle} getter for the specified (private) field, with the exact type of the field
+     *
+     * @throws Exception if we are not permitted to access the field (on java 9+ when the package of the field is not open to
+     *                   this module)
+     */
+    static
+    MethodHandle unreflectGetter(final Field field) throws Exception {
+        if (PRIVATE_LOOKUP_IN != null) {
+            // java 9+
+            final Class<?> type = field.getDeclaringClass();
+            final MethodHandles.Lookup lookup = (MethodHandles.Lookup) PRIVATE_LOOKUP_IN.invoke(null, type, MethodHandles.lookup());
+            return lookup.unreflectGetter(field);
+        }
+        else {
+            // java 8
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(field);
+        }
+    }
+
+    /**
+     * The javassist backend is only a fallback, so javassist is not required at runtime when {@code java.util} is open to
+     * this module (or on java 8, or in a GraalVM native-image with the bundled reflection configuration).
+     *
+     * @throws RuntimeException if javassist is not available, since then there is no way to access the wrapped field
+     */
+    static
+    void checkJavassist(final String className, final Exception cause) {
+        try {
+            Class.forName("javassist.ClassPool");
+        } catch (final ClassNotFoundException ignored) {
+            throw new RuntimeException("Unable to access " + className + ". Either open java.util to this module " +
+                                       "(--add-opens java.base/java.util=ALL-UNNAMED), or add javassist to the classpath.", cause);
+        }
+    }
+
+    /**
+     * @return the wrapped collection/map of the wrapper
+     */
+    abstract
+    Object get(Object wrapper);
+
+
+    private static final
+    class MethodHandleAccessor extends CollectionAccessor {
+        private final MethodHandle getter;
+
+        MethodHandleAccessor(final MethodHandle getter) {
+            this.getter = getter;
+        }
+
+        @Override
+        Object get(final Object wrapper) {
+            try {
+                return (Object) getter.invokeExact(wrapper);
+            } catch (final RuntimeException e) {
+                throw e;
+            } catch (final Error e) {
+                throw e;
+            } catch (final Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -20,20 +20,110 @@ import java.util.EnumMap;
 import java.util.Map;
 
 import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
 import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
 /**
  * A serializer for {@link EnumMap}s.
+ * <p/>
+ * When {@link #setCompact(boolean) compact} is enabled, the keys of each map are written either as a list of ordinals, or
+ * (for dense maps) as a presence bitmap with one bit per enum constant, whichever is smaller. Both the writing and the
+ * reading serializer must use the same setting.
+ * <p/>
+ * When {@link #setHomogeneousValues(boolean) homogeneous values} is enabled and all values of a map are of the same
+ * (non-null) class, that class is written once and every value is written with its serializer directly. Integer, Long,
+ * Double and Boolean values are written as raw varints/fixed values. Maps with mixed or null values fall back to writing
+ * the class of every value. Both the writing and the reading serializer must use the same setting.
  *
  * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
  */
 public
 class EnumMapSerializer extends Serializer<EnumMap<? extends Enum<?>, ?>> {
 
-    static {
+    /**
+     * {@link Class#getEnumConstants()} clones the constants array on every call, so we only do that once per enum type.
+     * The cached array is shared, and must never be modified.
+     */
+    private static final ClassValue<Enum<?>[]> ENUM_CONSTANTS = new ClassValue<Enum<?>[]>() {
+        @Override
+        protected
+        Enum<?>[] computeValue(final Class<?> type) {
+            return (Enum<?>[]) type.getEnumConstants();
+        }
+    };
+
+    /**
+     * Accessor for {@code EnumMap.keyType}, which is only needed for empty maps. This class is only initialized on the
+     * first write of an empty map.
+     */
+    private static final class KeyTypeAccessorHolder {
+        static final CollectionAccessor ACCESSOR = create();
+
+        private static CollectionAccessor create() {
+            try {
+                return CollectionAccessor.forField("java.util.EnumMap", "keyType");
+            } catch (final Exception e) {
+                // we are not permitted to use method handles (java.util is not open to us), so fallback to javassist
+                CollectionAccessor.checkJavassist("java.util.EnumMap", e);
+                JavassistAccessors.enumMap();
+
+                return new CollectionAccessor() {
+                    @Override
+                    Object get(final Object wrapper) {
+                        return EnumMapJavaAccessor.EnumMapKeyType_Field(wrapper);
+                    }
+                };
+            }
+        }
+    }
+
+    private static final byte FORMAT_ORDINALS = (byte) 0;
+    private static final byte FORMAT_BITMAP = (byte) 1;
+
+    private static final int VALUE_ANY = 0;
+    private static final int VALUE_OBJECT = 1;
+    private static final int VALUE_INTEGER = 2;
+    private static final int VALUE_LONG = 3;
+    private static final int VALUE_DOUBLE = 4;
+    private static final int VALUE_BOOLEAN = 5;
+
+    static
+    Enum<?>[] getEnumConstants(final Class<?> keyType) {
+        return ENUM_CONSTANTS.get(keyType);
+    }
+
+    private boolean compact = false;
+
+    /**
+     * @param compact if {@code true}, the keys of dense maps are written as a presence bitmap instead of a list of ordinals.
+     *                This changes the wire format, so it must be set identically for writing and reading.
+     */
+    public
+    void setCompact(final boolean compact) {
+        this.compact = compact;
+    }
+
+    public
+    boolean isCompact() {
+        return compact;
+    }
+
+    private boolean homogeneousValues = false;
+
+    /**
+     * @param homogeneousValues if {@code true}, the value class is written only once for maps where all values share the same class.
+     *                          This changes the wire format, so it must be set identically for writing and reading.
+     */
+    public
+    void setHomogeneousValues(final boolean homogeneousValues) {
+        this.homogeneousValues = homogeneousValues;
+    }
+
+    public
+    boolean isHomogeneousValues() {
+        return homogeneousValues;
     }
 
     @Override
@@ -55,24 +145,63 @@ class EnumMapSerializer extends Serializer<EnumMap<? extends Enum<?>, ?>> {
     EnumMap<? extends Enum<?>, ?> read(final Kryo kryo, final Input input, final Class<? extends EnumMap<? extends Enum<?>, ?>> type) {
         final Class<? extends Enum<?>> keyType = kryo.readClass(input)
                                                      .getType();
-        final EnumMap<? extends Enum<?>, ?> result = new EnumMap(keyType);
-        final Enum<?>[] enumConstants = keyType.getEnumConstants();
-        final EnumMap rawResult = result;
+        final EnumMap rawResult = new EnumMap(keyType);
+        final Enum<?>[] enumConstants = getEnumConstants(keyType);
+
+        // EnumMap.put() only stores into the backing array, so the only allocations here are the values themselves.
         final int size = input.readInt(true);
-        for (int i = 0; i < size; i++) {
-            final int ordinal = input.readVarInt(true);
-            final Enum<?> key = enumConstants[ordinal];
-            final Object value = kryo.readClassAndObject(input);
-            rawResult.put(key, value);
+        if (size == 0) {
+            return rawResult;
+        }
+
+        Class<?> valueClass = null;
+        Serializer valueSerializer = null;
+        if (homogeneousValues) {
+            final Registration registration = kryo.readClass(input);
+            if (registration != null) {
+                valueClass = registration.getType();
+                valueSerializer = registration.getSerializer();
+            }
+        }
+        final int valueType = valueType(valueClass);
+
+        if (compact && input.readByte() == FORMAT_BITMAP) {
+            final int bitmapBytes = bitmapBytes(enumConstants.length);
+            for (int word = 0; (word << 3) < bitmapBytes; word++) {
+                final int wordBytes = Math.min(8, bitmapBytes - (word << 3));
+
+                long bits = 0L;
+                for (int i = 0; i < wordBytes; i++) {
+                    bits |= (input.readByte() & 0xFFL) << (i << 3);
+                }
+
+                while (bits != 0L) {
+                    final int ordinal = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    rawResult.put(enumConstants[ordinal], readValue(kryo, input, valueType, valueClass, valueSerializer));
+
+                    // clear the lowest set bit
+                    bits &= bits - 1L;
+                }
+            }
+        }
+        else {
+            for (int i = 0; i < size; i++) {
+                final int ordinal = input.readVarInt(true);
+                rawResult.put(enumConstants[ordinal], readValue(kryo, input, valueType, valueClass, valueSerializer));
+            }
         }
-        return result;
+        return rawResult;
     }
 
     @Override
     public
     void write(final Kryo kryo, final Output output, final EnumMap<? extends Enum<?>, ?> map) {
-        if (map.isEmpty()) {
-            throw new KryoException("An EnumMap must not be empty to be serialized, the type can not be safely inferred.");
+        final int size = map.size();
+
+        if (size == 0) {
+            // the key type can not be inferred from the (non-existent) keys, so we read it from the map itself
+            kryo.writeClass(output, (Class<?>) KeyTypeAccessorHolder.ACCESSOR.get(map));
+            output.writeInt(0, true);
         } else {
             @SuppressWarnings("unchecked")
             Class<Enum<?>> keyType = (Class<Enum<?>>) map.keySet()
@@ -80,12 +209,153 @@ class EnumMapSerializer extends Serializer<EnumMap<? extends Enum<?>, ?>> {
                                                          .next()
                                                          .getDeclaringClass();
             kryo.writeClass(output, keyType);
-            output.writeInt(map.size(), true);
-            for (final Map.Entry<? extends Enum<?>, ?> entry : map.entrySet()) {
-                output.writeVarInt(entry.getKey()
-                                        .ordinal(), true);
-                kryo.writeClassAndObject(output, entry.getValue());
+            output.writeInt(size, true);
+
+            Serializer<?> valueSerializer = null;
+            int valueType = VALUE_ANY;
+            if (homogeneousValues) {
+                // writing a null class means the values are mixed (or contain null)
+                final Registration registration = kryo.writeClass(output, getHomogeneousValueClass(map));
+                if (registration != null) {
+                    valueSerializer = registration.getSerializer();
+                    valueType = valueType(registration.getType());
+                }
+            }
+
+            final Enum<?>[] enumConstants = getEnumConstants(keyType);
+            final int bitmapBytes = bitmapBytes(enumConstants.length);
+
+            // a bitmap costs 1 byte per 8 constants, an ordinal list at least 1 byte per entry.
+            if (compact && bitmapBytes < size) {
+                output.writeByte(FORMAT_BITMAP);
+
+                // the bitmap is built 64 constants at a time, so there is no need for a temporary long[]
+                for (int word = 0; (word << 3) < bitmapBytes; word++) {
+                    final int start = word << 6;
+                    final int end = Math.min(start + 64, enumConstants.length);
+
+                    long bits = 0L;
+                    for (int ordinal = start; ordinal < end; ordinal++) {
+                        if (map.containsKey(enumConstants[ordinal])) {
+                            bits |= 1L << (ordinal - start);
+                        }
+                    }
+
+                    final int wordBytes = Math.min(8, bitmapBytes - (word << 3));
+                    for (int i = 0; i < wordBytes; i++) {
+                        output.writeByte((byte) (bits >>> (i << 3)));
+                    }
+                }
+
+                // EnumMap iterates in ordinal order, which is the same order the bitmap is read in
+                for (final Enum<?> key : map.keySet()) {
+                    writeValue(kryo, output, valueType, valueSerializer, map.get(key));
+                }
+            }
+            else {
+                if (compact) {
+                    output.writeByte(FORMAT_ORDINALS);
+                }
+
+                // iterating the keys (instead of the entries) does not allocate a new Map.Entry per key
+                for (final Enum<?> key : map.keySet()) {
+                    output.writeVarInt(key.ordinal(), true);
+                    writeValue(kryo, output, valueType, valueSerializer, map.get(key));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the class shared by all values of the map, or {@code null} if the values are of different classes or contain null
+     */
+    private static
+    Class<?> getHomogeneousValueClass(final EnumMap<? extends Enum<?>, ?> map) {
+        Class<?> valueClass = null;
+        for (final Object value : map.values()) {
+            if (value == null) {
+                return null;
+            }
+
+            final Class<?> type = value.getClass();
+            if (valueClass == null) {
+                valueClass = type;
+            }
+            else if (valueClass != type) {
+                return null;
             }
         }
+        return valueClass;
+    }
+
+    private static
+    int valueType(final Class<?> valueClass) {
+        if (valueClass == null) {
+            return VALUE_ANY;
+        }
+        if (valueClass == Integer.class) {
+            return VALUE_INTEGER;
+        }
+        if (valueClass == Long.class) {
+            return VALUE_LONG;
+        }
+        if (valueClass == Double.class) {
+            return VALUE_DOUBLE;
+        }
+        if (valueClass == Boolean.class) {
+            return VALUE_BOOLEAN;
+        }
+        return VALUE_OBJECT;
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static
+    void writeValue(final Kryo kryo, final Output output, final int valueType, final Serializer valueSerializer, final Object value) {
+        switch (valueType) {
+            case VALUE_INTEGER:
+                output.writeVarInt((Integer) value, false);
+                break;
+            case VALUE_LONG:
+                output.writeVarLong((Long) value, false);
+                break;
+            case VALUE_DOUBLE:
+                output.writeDouble((Double) value);
+                break;
+            case VALUE_BOOLEAN:
+                output.writeBoolean((Boolean) value);
+                break;
+            case VALUE_OBJECT:
+                kryo.writeObject(output, value, valueSerializer);
+                break;
+            default:
+                kryo.writeClassAndObject(output, value);
+        }
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static
+    Object readValue(final Kryo kryo, final Input input, final int valueType, final Class valueClass, final Serializer valueSerializer) {
+        switch (valueType) {
+            case VALUE_INTEGER:
+                return input.readVarInt(false);
+            case VALUE_LONG:
+                return input.readVarLong(false);
+            case VALUE_DOUBLE:
+                return input.readDouble();
+            case VALUE_BOOLEAN:
+                return input.readBoolean();
+            case VALUE_OBJECT:
+                return kryo.readObject(input, valueClass, valueSerializer);
+            default:
+                return kryo.readClassAndObject(input);
+        }
+    }
+
+    /**
+     * @return the number of bytes needed for a bitmap with one bit per enum constant
+     */
+    private static
+    int bitmapBytes(final int constants) {
+        return (constants + 7) >>> 3;
     }
 }
@@ -4,13 +4,23 @@ import static com.esotericsoftware.minlog.Log.TRACE;
 import static com.esotericsoftware.minlog.Log.trace;
 
 import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
 import java.lang.reflect.Field;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.SerializerFactory;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.serializers.FieldSerializer;
 
 /**
@@ -33,6 +43,10 @@ import com.esotericsoftware.kryo.serializers.FieldSerializer;
  * <p/>
  * Similarly, it is possible to created a serializer which does the opposite such that the resulting serializer
  * would only serialize fields that are annotated with the specified annotations.
+ * <p/>
+ * A serializer belongs to a single {@link Kryo} instance, like its cached fields. The analysis of the fields (their
+ * annotations) is immutable and shared by all serializers, so that for example new threads with their own {@link Kryo}
+ * instance do not analyze the same classes again.
  *
  * @author <a href="mailto:rafael.wth@web.de">Rafael Winterhalter</a>
  * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
@@ -44,7 +58,8 @@ public class FieldAnnotationAwareSerializer<T> extends FieldSerializer<T> {
      */
     public static class Factory implements SerializerFactory<FieldAnnotationAwareSerializer<Object>> {
 
-        private final Collection<Class<? extends Annotation>> marked;
+        // shared by all serializers of this factory
+        private final Set<Class<? extends Annotation>> marked;
         private final boolean disregarding;
 
         /**
@@ -57,7 +72,7 @@ public class FieldAnnotationAwareSerializer<T> extends FieldSerializer<T> {
          *                     if set to {@code false} it will exclusively look at annotated fields.
          */
         public Factory(final Collection<Class<? extends Annotation>> marked, final boolean disregarding) {
-            this.marked = marked;
+            this.marked = Collections.unmodifiableSet(new HashSet<Class<? extends Annotation>>(marked));
             this.disregarding = disregarding;
         }
 
@@ -68,11 +83,30 @@ public class FieldAnnotationAwareSerializer<T> extends FieldSerializer<T> {
 
         @Override
         public FieldAnnotationAwareSerializer<Object> newSerializer(final Kryo kryo, final Class type) {
-            return new FieldAnnotationAwareSerializer<Object>(kryo, type, marked, disregarding);
+            return new FieldAnnotationAwareSerializer<Object>(kryo, type, disregarding, marked);
         }
     }
 
-    private final Set<Class<? extends Annotation>> marked;
+    /**
+     * The metadata of the declared fields (by field name) of a class. The metadata is immutable and does not depend on the
+     * {@link Kryo} instance, so it is shared by all serializers (for example, of the Kryo instances of all threads). A class
+     * is therefore only analyzed once, and newly created serializers only hold their (per Kryo instance) cached fields.
+     */
+    private static final ClassValue<Map<String, FieldMetadata>> FIELD_METADATA = new ClassValue<Map<String, FieldMetadata>>() {
+        @Override
+        protected
+        Map<String, FieldMetadata> computeValue(final Class<?> type) {
+            final Field[] fields = type.getDeclaredFields();
+            final Map<String, FieldMetadata> metadata = new HashMap<String, FieldMetadata>(fields.length * 2);
+            for (final Field field : fields) {
+                metadata.put(field.getName(), new FieldMetadata(field));
+            }
+            return metadata;
+        }
+    };
+
+    // unmodifiable (copy-on-write), so that it can be shared by all serializers of a factory
+    private Set<Class<? extends Annotation>> marked;
 
     /**
      * Determines whether annotated fields should be excluded from serialization.
@@ -82,6 +116,13 @@ public class FieldAnnotationAwareSerializer<T> extends FieldSerializer<T> {
      */
     private final boolean disregarding;
 
+    private boolean groupedLayout;
+
+    // the grouped order (layout) of the cached fields (by index), rebuilt when the cached fields change. It only depends on
+    // the types of the fields, the fields themselves are always read/written via their cached field (and its configuration).
+    private CachedField[] layoutSource;
+    private int[] layout;
+
     /**
      * Creates a new field annotation aware serializer.
      *
@@ -100,9 +141,20 @@ public class FieldAnnotationAwareSerializer<T> extends FieldSerializer<T> {
                                           final Class<?> type,
                                           final Collection<Class<? extends Annotation>> marked,
                                           final boolean disregarding) {
+        this(kryo, type, disregarding, Collections.unmodifiableSet(new HashSet<Class<? extends Annotation>>(marked)));
+    }
+
+    /**
+     * Creates a new field annotation aware serializer, which shares the specified (unmodifiable) set of annotations.
+     */
+    FieldAnnotationAwareSerializer(final Kryo kryo,
+                                   final Class<?> type,
+                                   final boolean disregarding,
+                                   final Set<Class<? extends Annotation>> marked) {
         super(kryo, type);
         this.disregarding = disregarding;
-        this.marked = new HashSet<Class<? extends Annotation>>(marked);
+        this.marked = marked;
+        this.groupedLayout = type.isAnnotationPresent(GroupedLayout.class);
 
         removeFields();
     }
@@ -130,7 +182,111 @@ public class FieldAnnotationAwareSerializer<T> extends FieldSerializer<T> {
                 }
                 super.removeField(field.getName());
             }
+            else if (getMetadata(field).fixedWidth) {
+                cachedField.setVariableLengthEncoding(false);
+            }
+        }
+    }
+
+    /**
+     * Writes all primitive fields first (as one contiguous block), and then all other fields, so that the primitive values
+     * are read/written sequentially. Within each group the fields keep the order of the {@link FieldSerializer}, which is
+     * alphabetical by field name. The default is {@code true} if the serialized class is annotated with {@link GroupedLayout}.
+     * <p/>
+     * <b>Important</b>: This changes the serialized format, so it must be the same when writing and reading.
+     */
+    public void setGroupedLayout(final boolean groupedLayout) {
+        this.groupedLayout = groupedLayout;
+    }
+
+    public boolean isGroupedLayout() {
+        return groupedLayout;
+    }
+
+    @Override
+    public void write(final Kryo kryo, final Output output, final T object) {
+        if (!groupedLayout) {
+            super.write(kryo, output, object);
+            return;
+        }
+
+        final CachedField[] fields = getFields();
+        final int[] layout = getLayout(fields);
+
+        final int pop = pushTypeVariables();
+        for (int j = 0, n = layout.length; j < n; j++) {
+            final int i = layout[j];
+            try {
+                fields[i].write(output, object);
+            } catch (final KryoException e) {
+                e.addTrace(fields[i] + " (" + getType().getName() + ")");
+                throw e;
+            } catch (final RuntimeException e) {
+                final KryoException ex = new KryoException(e);
+                ex.addTrace(fields[i] + " (" + getType().getName() + ")");
+                throw ex;
+            }
+        }
+        popTypeVariables(pop);
+    }
+
+    @Override
+    public T read(final Kryo kryo, final Input input, final Class<? extends T> type) {
+        if (!groupedLayout) {
+            return super.read(kryo, input, type);
+        }
+
+        final CachedField[] fields = getFields();
+        final int[] layout = getLayout(fields);
+
+        final int pop = pushTypeVariables();
+        final T object = create(kryo, input, type);
+        kryo.reference(object);
+
+        for (int j = 0, n = layout.length; j < n; j++) {
+            final int i = layout[j];
+            try {
+                fields[i].read(input, object);
+            } catch (final KryoException e) {
+                e.addTrace(fields[i] + " (" + getType().getName() + ")");
+                throw e;
+            } catch (final RuntimeException e) {
+                final KryoException ex = new KryoException(e);
+                ex.addTrace(fields[i] + " (" + getType().getName() + ")");
+                throw ex;
+            }
         }
+        popTypeVariables(pop);
+        return object;
+    }
+
+    private int[] getLayout(final CachedField[] fields) {
+        if (layoutSource == fields) {
+            return layout;
+        }
+
+        // the primitive fields first, then the object fields (both in the order of the cached fields)
+        final int n = fields.length;
+        final int[] layout = new int[n];
+        int next = 0;
+        for (int i = 0; i < n; i++) {
+            if (fields[i].getField().getType().isPrimitive()) {
+                layout[next++] = i;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (!fields[i].getField().getType().isPrimitive()) {
+                layout[next++] = i;
+            }
+        }
+
+        this.layout = layout;
+        layoutSource = fields;
+        return layout;
+    }
+
+    private static FieldMetadata getMetadata(final Field field) {
+        return FIELD_METADATA.get(field.getDeclaringClass()).get(field.getName());
     }
 
     private boolean isRemove(final Field field) {
@@ -138,8 +294,7 @@ public class FieldAnnotationAwareSerializer<T> extends FieldSerializer<T> {
     }
 
     private boolean isMarked(final Field field) {
-        for (final Annotation annotation : field.getAnnotations()) {
-            final Class<? extends Annotation> annotationType = annotation.annotationType();
+        for (final Class<?> annotationType : getMetadata(field).annotationTypes) {
             if (marked.contains(annotationType)) {
                 return true;
             }
@@ -163,11 +318,8 @@ public class FieldAnnotationAwareSerializer<T> extends FieldSerializer<T> {
      * @return {@code true} if the method call had an effect.
      */
     public boolean addAnnotation(final Class<? extends Annotation> clazz) {
-        if (disregarding && marked.add(clazz)) {
-            initializeCachedFields();
-            return true;
-        }
-        return false;
+        return updateAnnotations(Collections.<Class<? extends Annotation>>singleton(clazz),
+                                 Collections.<Class<? extends Annotation>>emptySet());
     }
 
     /**
@@ -186,10 +338,68 @@ public class FieldAnnotationAwareSerializer<T> extends FieldSerializer<T> {
      * @return {@code true} if the method call had an effect.
      */
     public boolean removeAnnotation(final Class<? extends Annotation> clazz) {
-        if (!disregarding && marked.remove(clazz)) {
-            initializeCachedFields();
-            return true;
+        return updateAnnotations(Collections.<Class<? extends Annotation>>emptySet(),
+                                 Collections.<Class<? extends Annotation>>singleton(clazz));
+    }
+
+    /**
+     * Adds and removes several annotations at once. The same restrictions as for {@link #addAnnotation(Class)} and
+     * {@link #removeAnnotation(Class)} apply: added annotations only have an effect if {@code disregarding} is {@code true},
+     * and removed annotations only have an effect if {@code disregarding} is {@code false}.
+     * <p/>
+     * The cached fields are not rebuilt, only the fields that are affected by the changes are removed.
+     *
+     * @param added   The annotation classes to be added.
+     * @param removed The annotation classes to be removed.
+     * @return {@code true} if the method call had an effect.
+     */
+    public boolean updateAnnotations(final Collection<Class<? extends Annotation>> added,
+                                     final Collection<Class<? extends Annotation>> removed) {
+        // copy-on-write, since the set can be shared with other serializers
+        final Set<Class<? extends Annotation>> updated = new HashSet<Class<? extends Annotation>>(marked);
+        final boolean changed = disregarding ? updated.addAll(added) : updated.removeAll(removed);
+        if (changed) {
+            marked = Collections.unmodifiableSet(updated);
+            removeFields();
+        }
+        return changed;
+    }
+
+    /**
+     * Writes the primitive fields of the annotated class as one contiguous block, before all other fields. Within each group
+     * the fields are ordered alphabetically by field name. See {@link #setGroupedLayout(boolean)}.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    public @interface GroupedLayout {
+    }
+
+    /**
+     * Writes the annotated {@code int} or {@code long} field with a fixed width (4 or 8 bytes), instead of the variable length
+     * encoding. This is faster to read/write, and smaller for values that use most of the bits (for example, hashes or
+     * timestamps).
+     * <p/>
+     * <b>Important</b>: This changes the serialized format, so it must be the same when writing and reading.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.FIELD)
+    public @interface FixedWidth {
+    }
+
+    /**
+     * The (immutable) metadata of a field, shared by all serializers.
+     */
+    private static final class FieldMetadata {
+        final Class<?>[] annotationTypes;
+        final boolean fixedWidth;
+
+        FieldMetadata(final Field field) {
+            final Annotation[] annotations = field.getAnnotations();
+            annotationTypes = new Class<?>[annotations.length];
+            for (int i = 0; i < annotations.length; i++) {
+                annotationTypes[i] = annotations[i].annotationType();
+            }
+            fixedWidth = field.isAnnotationPresent(FixedWidth.class);
         }
-        return false;
     }
 }
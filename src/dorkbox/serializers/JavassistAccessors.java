@@ -0,0 +1,286 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dorkbox.serializers;
+
+import dorkbox.jna.ClassUtils;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.CtNewMethod;
+
+/**
+ * The javassist backend for accessing the private fields of JDK classes. It rewrites the *JavaAccessor classes at runtime, so
+ * that they call a generated class which is defined inside {@code java.util} (and is therefore permitted to access the
+ * fields).
+ * <p/>
+ * This is only used when the (precompiled) {@link CollectionAccessor} backend is not permitted, and it is kept in its own
+ * class so that javassist is never loaded otherwise. Every rewrite only happens once, and must happen before the rewritten
+ * class is used for the first time.
+ */
+final
+class JavassistAccessors {
+    private static boolean unmodifiableCollections = false;
+    private static boolean synchronizedCollections = false;
+    private static boolean enumMap = false;
+
+    private
+    JavassistAccessors() {
+    }
+
+    /**
+     * Rewrites the {@link UnmodifiableCollectionJavaAccessor}.
+     */
+    static synchronized
+    void unmodifiableCollections() {
+        if (unmodifiableCollections) {
+            return;
+        }
+        unmodifiableCollections = true;
+
+        try {
+            ClassPool pool = ClassPool.getDefault();
+
+            // allow non-reflection access to java.util.Collections...()
+            {
+                CtClass dynamicClass = pool.makeClass("java.util.UnmodifiableCollectionsAccessory");
+                CtMethod method = CtNewMethod.make(
+                        "public static Object getUnmodifiableCollectionField(Object nativeComp) { " +
+                        // "java.lang.System.err.println(\"Getting collection field!\" + ((java.util.Collections$UnmodifiableCollection)nativeComp).c);" +
+                        "return ((java.util.Collections$UnmodifiableCollection)nativeComp).c;" +
+                        "}", dynamicClass);
+                dynamicClass.addMethod(method);
+
+                method = CtNewMethod.make(
+                        "public static java.lang.reflect.Field initUnmodifiableMapField() { " +
+                        "java.lang.reflect.Field field = Class.forName(\"java.util.Collections$UnmodifiableMap\").getDeclaredField( \"m\" );" +
+                        "field.setAccessible( true );" +
+                        // "java.lang.System.err.println(\"updating map field!\");" +
+                        "return field;" +
+                        "}", dynamicClass);
+                dynamicClass.addMethod(method);
+
+                method = CtNewMethod.make(
+                        "public static Object getUnmodifiableMapField(java.lang.reflect.Field field, Object nativeComp) { " +
+                        // "java.lang.System.err.println(\"Getting map field!\" + field.get(nativeComp));" +
+                        "return field.get(nativeComp);" +
+                        "}", dynamicClass);
+                dynamicClass.addMethod(method);
+
+                final byte[] dynamicClassBytes = dynamicClass.toBytecode();
+                ClassUtils.defineClass(null, dynamicClassBytes);
+            }
+
+            // fix the accessor class to point to the generated proxy/accessory class
+            {
+                CtClass classFixer = pool.get("dorkbox.serializers.UnmodifiableCollectionJavaAccessor");
+
+                CtMethod ctMethod = classFixer.getDeclaredMethod("UnmodifiableCollection_Field");
+                ctMethod.setBody("{" +
+                                 "return java.util.UnmodifiableCollectionsAccessory.getUnmodifiableCollectionField($1);" +
+                                 "}");
+                // perform pre-verification for the modified method
+                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
+
+
+                ctMethod = classFixer.getDeclaredMethod("initUnmodifiableMap_Field");
+                ctMethod.setBody("{" +
+                                 "dorkbox.serializers.UnmodifiableCollectionJavaAccessor.SOURCE_MAP_FIELD = java.util.UnmodifiableCollectionsAccessory.initUnmodifiableMapField();" +
+                                 "}");
+                // perform pre-verification for the modified method
+                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
+
+
+                ctMethod = classFixer.getDeclaredMethod("UnmodifiableMap_Field");
+                ctMethod.setBody("{" +
+                                 "return java.util.UnmodifiableCollectionsAccessory.getUnmodifiableMapField(dorkbox.serializers.UnmodifiableCollectionJavaAccessor.SOURCE_MAP_FIELD, $1);" +
+                                 "}");
+                // perform pre-verification for the modified method
+                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
+
+
+                // perform pre-verification for the modified method
+                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
+
+
+                final byte[] classFixerBytes = classFixer.toBytecode();
+                ClassUtils.defineClass(ClassLoader.getSystemClassLoader(), classFixerBytes);
+            }
+
+
+            // setup reflection, but it's done from INSIDE THE SAME PACKAGE (so no warnings/etc)
+            UnmodifiableCollectionJavaAccessor.initUnmodifiableMap_Field();
+
+        } catch ( final Exception e ) {
+            throw new RuntimeException( "Could not modify UnmodifiableCollection", e );
+        }
+    }
+
+    /**
+     * Rewrites the {@link SynchronizedCollectionJavaAccessor}.
+     */
+    static synchronized
+    void synchronizedCollections() {
+        if (synchronizedCollections) {
+            return;
+        }
+        synchronizedCollections = true;
+
+        try {
+            ClassPool pool = ClassPool.getDefault();
+
+            // allow non-reflection access to java.util.Collections...()
+            {
+                CtClass dynamicClass = pool.makeClass("java.util.SynchronizedCollectionsAccessory");
+                CtMethod method = CtNewMethod.make(
+                        "public static Object getSynchronizedCollectionField(Object nativeComp) { " +
+                        // "java.lang.System.err.println(\"Getting sync collection field!\" + ((java.util.Collections$SynchronizedCollection)nativeComp).c);" +
+                        "return ((java.util.Collections$SynchronizedCollection)nativeComp).c;" +
+                        "}", dynamicClass);
+                dynamicClass.addMethod(method);
+
+                method = CtNewMethod.make(
+                        "public static java.lang.reflect.Field initSynchronizedMapField() { " +
+                        "java.lang.reflect.Field field = Class.forName(\"java.util.Collections$SynchronizedMap\").getDeclaredField( \"m\" );" +
+                        "field.setAccessible( true );" +
+                        // "java.lang.System.err.println(\"updating sync map field!\");" +
+                        "return field;" +
+                        "}", dynamicClass);
+                dynamicClass.addMethod(method);
+
+                method = CtNewMethod.make(
+                        "public static Object getSynchronizedMapField(java.lang.reflect.Field field, Object nativeComp) { " +
+                        // "java.lang.System.err.println(\"Getting sync map field!\" + field.get(nativeComp));" +
+                        "return field.get(nativeComp);" +
+                        "}", dynamicClass);
+                dynamicClass.addMethod(method);
+
+                final byte[] dynamicClassBytes = dynamicClass.toBytecode();
+                ClassUtils.defineClass(null, dynamicClassBytes);
+            }
+
+            // fix the accessor class to point to the generated proxy/accessory class
+            {
+                CtClass classFixer = pool.get("dorkbox.serializers.SynchronizedCollectionJavaAccessor");
+
+                CtMethod ctMethod = classFixer.getDeclaredMethod("SynchronizedCollection_Field");
+                ctMethod.setBody("{" +
+                                 "return java.util.SynchronizedCollectionsAccessory.getSynchronizedCollectionField($1);" +
+                                 "}");
+                // perform pre-verification for the modified method
+                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
+
+
+                ctMethod = classFixer.getDeclaredMethod("initSynchronizedMap_Field");
+                ctMethod.setBody("{" +
+                                 "dorkbox.serializers.SynchronizedCollectionJavaAccessor.SOURCE_MAP_FIELD = java.util.SynchronizedCollectionsAccessory.initSynchronizedMapField();" +
+                                 "}");
+                // perform pre-verification for the modified method
+                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
+
+
+                ctMethod = classFixer.getDeclaredMethod("SynchronizedMap_Field");
+                ctMethod.setBody("{" +
+                                 "return java.util.SynchronizedCollectionsAccessory.getSynchronizedMapField(dorkbox.serializers.SynchronizedCollectionJavaAccessor.SOURCE_MAP_FIELD, $1);" +
+                                 "}");
+                // perform pre-verification for the modified method
+                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
+
+
+                // perform pre-verification for the modified method
+                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
+
+
+                final byte[] classFixerBytes = classFixer.toBytecode();
+                ClassUtils.defineClass(ClassLoader.getSystemClassLoader(), classFixerBytes);
+            }
+
+
+            // setup reflection, but it's done from INSIDE THE SAME PACKAGE (so no warnings/etc)
+            SynchronizedCollectionJavaAccessor.initSynchronizedMap_Field();
+
+        } catch ( final Exception e ) {
+            throw new RuntimeException( "Could not modify SynchronizedCollection", e );
+        }
+    }
+
+    /**
+     * Rewrites the {@link EnumMapJavaAccessor}.
+     */
+    static synchronized
+    void enumMap() {
+        if (enumMap) {
+            return;
+        }
+        enumMap = true;
+
+        try {
+            ClassPool pool = ClassPool.getDefault();
+
+            // allow access to java.util.EnumMap.keyType, so that empty maps can be serialized
+            {
+                CtClass dynamicClass = pool.makeClass("java.util.EnumMapAccessory");
+                CtMethod method = CtNewMethod.make(
+                        "public static java.lang.reflect.Field initEnumMapKeyTypeField() { " +
+                        "java.lang.reflect.Field field = Class.forName(\"java.util.EnumMap\").getDeclaredField( \"keyType\" );" +
+                        "field.setAccessible( true );" +
+                        "return field;" +
+                        "}", dynamicClass);
+                dynamicClass.addMethod(method);
+
+                method = CtNewMethod.make(
+                        "public static Class getEnumMapKeyTypeField(java.lang.reflect.Field field, Object nativeComp) { " +
+                        "return (Class) field.get(nativeComp);" +
+                        "}", dynamicClass);
+                dynamicClass.addMethod(method);
+
+                final byte[] dynamicClassBytes = dynamicClass.toBytecode();
+                ClassUtils.defineClass(null, dynamicClassBytes);
+            }
+
+            // fix the accessor class to point to the generated proxy/accessory class
+            {
+                CtClass classFixer = pool.get("dorkbox.serializers.EnumMapJavaAccessor");
+
+                CtMethod ctMethod = classFixer.getDeclaredMethod("initEnumMapKeyType_Field");
+                ctMethod.setBody("{" +
+                                 "dorkbox.serializers.EnumMapJavaAccessor.KEY_TYPE_FIELD = java.util.EnumMapAccessory.initEnumMapKeyTypeField();" +
+                                 "}");
+                // perform pre-verification for the modified method
+                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
+
+
+                ctMethod = classFixer.getDeclaredMethod("EnumMapKeyType_Field");
+                ctMethod.setBody("{" +
+                                 "return java.util.EnumMapAccessory.getEnumMapKeyTypeField(dorkbox.serializers.EnumMapJavaAccessor.KEY_TYPE_FIELD, $1);" +
+                                 "}");
+                // perform pre-verification for the modified method
+                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
+
+
+                final byte[] classFixerBytes = classFixer.toBytecode();
+                ClassUtils.defineClass(ClassLoader.getSystemClassLoader(), classFixerBytes);
+            }
+
+
+            // setup reflection, but it's done from INSIDE THE SAME PACKAGE (so no warnings/etc). This is resolved only once.
+            EnumMapJavaAccessor.initEnumMapKeyType_Field();
+
+        } catch ( final Exception e ) {
+            throw new RuntimeException( "Could not modify EnumMap", e );
+        }
+    }
+}
@@ -16,16 +16,21 @@
  */
 package dorkbox.serializers;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.RandomAccess;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.IdentityMap;
+import com.esotericsoftware.kryo.util.ObjectMap;
 
 /**
  * Kryo {@link Serializer}s for lists created via {@link List#subList(int, int)}.
@@ -53,9 +58,8 @@ public class SubListSerializers {
         }
     }
     
-    // Workaround reference reading, this should be removed sometimes. See also
-    // https://groups.google.com/d/msg/kryo-users/Eu5V4bxCfws/k-8UQ22y59AJ
-    private static final Object FAKE_REFERENCE = new Object();
+    // graph context key of the sublists that were already copied (by the current kryo.copy() call)
+    private static final Object COPIES = new Object();
 
     /**
      * Obtain a serializer for the given sublist type. If the type is not supported
@@ -76,35 +80,172 @@ public class SubListSerializers {
      * Adds appropriate sublist serializers as default serializers.
      */
     public static Kryo addDefaultSerializers(Kryo kryo) {
-        ArrayListSubListSerializer.addDefaultSerializer(kryo);
-        AbstractListSubListSerializer.addDefaultSerializer(kryo);
-        JavaUtilSubListSerializer.addDefaultSerializer(kryo);
+        return addDefaultSerializers(kryo, false, false);
+    }
+
+    /**
+     * Adds appropriate sublist serializers as default serializers.
+     *
+     * @param windowOnly <code>true</code> to only write the elements that are visible through the sublist (instead of the
+     *            entire parent list). The sublist is then read back as a sublist of a new {@link ArrayList}, that only
+     *            contains the visible elements. Both sides must use the same setting.
+     * @param preserveSharedParents only used with <code>windowOnly</code>: when references are enabled and the parent list
+     *            was already written, the sublist is written as a reference to that parent (so that the deserialized sublist
+     *            is a view of the deserialized parent, as it is without <code>windowOnly</code>).
+     */
+    public static Kryo addDefaultSerializers(Kryo kryo, boolean windowOnly, boolean preserveSharedParents) {
+        if (ArrayListSubListSerializer.SUBLIST_CLASS != null) {
+            final ArrayListSubListSerializer serializer = new ArrayListSubListSerializer();
+            serializer.setWindowOnly(windowOnly);
+            serializer.setPreserveSharedParents(preserveSharedParents);
+            kryo.addDefaultSerializer(ArrayListSubListSerializer.SUBLIST_CLASS, serializer);
+        }
+        if (AbstractListSubListSerializer.SUBLIST_CLASS != null) {
+            final AbstractListSubListSerializer serializer = new AbstractListSubListSerializer();
+            serializer.setWindowOnly(windowOnly);
+            serializer.setPreserveSharedParents(preserveSharedParents);
+            kryo.addDefaultSerializer(AbstractListSubListSerializer.SUBLIST_CLASS, serializer);
+        }
+        if (JavaUtilSubListSerializer.SUBLIST_CLASS != null) {
+            final JavaUtilSubListSerializer serializer = new JavaUtilSubListSerializer();
+            serializer.setWindowOnly(windowOnly);
+            serializer.setPreserveSharedParents(preserveSharedParents);
+            kryo.addDefaultSerializer(JavaUtilSubListSerializer.SUBLIST_CLASS, serializer);
+        }
         return kryo;
     }
 
+    /**
+     * Reads the parent list, the offset into the parent and the size of a sublist, via {@link MethodHandle} getters. They are
+     * resolved once (when the serializer is created) and do not box the offset/size on every access.
+     */
+    static final class SubListAccessor {
+
+        private final Class<?> _subListClass;
+        private final MethodHandle _parent;
+        private final MethodHandle _offset;
+        private final MethodHandle _size;
+
+        SubListAccessor(final Field parentField, final Field offsetField, final Field sizeField) throws Exception {
+            _subListClass = parentField.getDeclaringClass();
+            _parent = CollectionAccessor.unreflectGetter(parentField).asType(MethodType.methodType(Object.class, Object.class));
+            _offset = CollectionAccessor.unreflectGetter(offsetField).asType(MethodType.methodType(int.class, Object.class));
+            _size = CollectionAccessor.unreflectGetter(sizeField).asType(MethodType.methodType(int.class, Object.class));
+        }
+
+        Object parent(final Object subList) {
+            try {
+                return (Object) _parent.invokeExact(subList);
+            } catch (final RuntimeException e) {
+                throw e;
+            } catch (final Error e) {
+                throw e;
+            } catch (final Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        int offset(final Object subList) {
+            try {
+                return (int) _offset.invokeExact(subList);
+            } catch (final RuntimeException e) {
+                throw e;
+            } catch (final Error e) {
+                throw e;
+            } catch (final Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        int size(final Object subList) {
+            try {
+                return (int) _size.invokeExact(subList);
+            } catch (final RuntimeException e) {
+                throw e;
+            } catch (final Error e) {
+                throw e;
+            } catch (final Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * @return the root list of the sublist. Chains of sublists are collapsed (java 8 and <code>java.util.SubList</code>
+         *         reference the parent sublist, java 9+ already references the root list).
+         */
+        Object root(final Object subList) {
+            Object parent = parent(subList);
+            while (_subListClass.isInstance(parent)) {
+                parent = parent(parent);
+            }
+            return parent;
+        }
+
+        /**
+         * @return the offset of the sublist into its {@link #root(Object)} list
+         */
+        int rootOffset(final Object subList) {
+            int offset = offset(subList);
+            Object parent = parent(subList);
+            while (_subListClass.isInstance(parent)) {
+                offset += offset(parent);
+                parent = parent(parent);
+            }
+            return offset;
+        }
+    }
+
     /**
      * Supports sublists created via {@link ArrayList#subList(int, int)} since java7 and {@link LinkedList#subList(int, int)} since java9 (openjdk).
      */
     private static class SubListSerializer extends Serializer<List<?>> {
 
-        private Field _parentField;
-        private Field _parentOffsetField;
-        private Field _sizeField;
+        // only written in window-only mode
+        private static final int FORMAT_PARENT = 0;
+        private static final int FORMAT_WINDOW = 1;
+
+        private final SubListAccessor _accessor;
+        private boolean _windowOnly = false;
+        private boolean _preserveSharedParents = false;
+        private boolean _copyWindowOnly = false;
 
         public SubListSerializer(String subListClassName) {
             try {
                 final Class<?> clazz = Class.forName(subListClassName);
-                _parentField = getParentField(clazz);
-                _parentOffsetField = getOffsetField(clazz);
-                _sizeField = clazz.getDeclaredField( "size" );
-                _parentField.setAccessible( true );
-                _parentOffsetField.setAccessible( true );
-                _sizeField.setAccessible( true );
+                _accessor = new SubListAccessor(getParentField(clazz), getOffsetField(clazz), clazz.getDeclaredField( "size" ));
             } catch (final Exception e) {
                 throw new RuntimeException(e);
             }
         }
 
+        public SubListSerializer(SubListAccessor accessor) {
+            _accessor = accessor;
+        }
+
+        void setWindowOnly(final boolean windowOnly) {
+            _windowOnly = windowOnly;
+        }
+
+        boolean isWindowOnly() {
+            return _windowOnly;
+        }
+
+        void setPreserveSharedParents(final boolean preserveSharedParents) {
+            _preserveSharedParents = preserveSharedParents;
+        }
+
+        boolean isPreserveSharedParents() {
+            return _preserveSharedParents;
+        }
+
+        void setCopyWindowOnly(final boolean copyWindowOnly) {
+            _copyWindowOnly = copyWindowOnly;
+        }
+
+        boolean isCopyWindowOnly() {
+            return _copyWindowOnly;
+        }
+
         private static Field getParentField(Class clazz) throws NoSuchFieldException {
             try {
                 // java 9+
@@ -126,7 +267,17 @@ public class SubListSerializers {
 
         @Override
         public List<?> read(final Kryo kryo, final Input input, final Class<? extends List<?>> clazz) {
-            kryo.reference(FAKE_REFERENCE);
+            // the reference id of the sublist stays reserved while the parent (or window) is read, since that read is balanced.
+            // Kryo then binds the id to the returned sublist, so later occurrences of the sublist are resolved by id.
+            if (_windowOnly && input.readByte() == FORMAT_WINDOW) {
+                final int size = input.readVarInt(true);
+                final ArrayList<Object> window = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    window.add(kryo.readClassAndObject(input));
+                }
+                return window.subList(0, size);
+            }
+
             final List<?> list = (List<?>) kryo.readClassAndObject(input);
             final int fromIndex = input.readInt(true);
             final int toIndex = input.readInt(true);
@@ -135,34 +286,71 @@ public class SubListSerializers {
 
         @Override
         public void write(final Kryo kryo, final Output output, final List<?> obj) {
-            try {
-                kryo.writeClassAndObject(output, _parentField.get(obj));
-                final int parentOffset = _parentOffsetField.getInt( obj );
-                final int fromIndex = parentOffset;
-                output.writeInt(fromIndex, true);
-                final int toIndex = fromIndex + _sizeField.getInt( obj );
-                output.writeInt(toIndex, true);
-            } catch (final RuntimeException e) {
-                // Don't eat and wrap RuntimeExceptions because the ObjectBuffer.write...
-                // handles SerializationException specifically (resizing the buffer)...
-                throw e;
-            } catch (final Exception e) {
-                throw new RuntimeException(e);
+            final Object parent = _accessor.root(obj);
+
+            if (_windowOnly) {
+                // the parent is only written when it was already written, so that it only costs a reference
+                final boolean sharedParent = _preserveSharedParents && kryo.getReferences() &&
+                                             kryo.getReferenceResolver().getWrittenId(parent) != -1;
+                if (!sharedParent) {
+                    output.writeByte(FORMAT_WINDOW);
+                    output.writeVarInt(obj.size(), true);
+                    for (final Object element : obj) {
+                        kryo.writeClassAndObject(output, element);
+                    }
+                    return;
+                }
+
+                output.writeByte(FORMAT_PARENT);
             }
+
+            kryo.writeClassAndObject(output, parent);
+            final int fromIndex = _accessor.rootOffset(obj);
+            output.writeInt(fromIndex, true);
+            final int toIndex = fromIndex + _accessor.size(obj);
+            output.writeInt(toIndex, true);
         }
 
         @Override
         public List<?> copy(final Kryo kryo, final List<?> original) {
-            kryo.reference(FAKE_REFERENCE);
-            try {
-                final List<?> list = (List<?>) _parentField.get(original);
-                final int parentOffset = _parentOffsetField.getInt( original );
-                final int fromIndex = parentOffset;
-                final int toIndex = fromIndex + _sizeField.getInt( original );
-                return kryo.copy(list).subList(fromIndex, toIndex);
-            } catch(final Exception e) {
-                throw new RuntimeException(e);
+            // kryo can only reference the copy before anything else is copied, but the sublist can only be created after the
+            // parent was copied. The copies of the sublists are therefore tracked separately (until the copy is finished).
+            final IdentityMap<Object, List<?>> copies = getCopies(kryo);
+            List<?> copy = copies.get(original);
+            if (copy == null) {
+                copy = copySubList(kryo, original);
+                copies.put(original, copy);
+            }
+            return copy;
+        }
+
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        private static IdentityMap<Object, List<?>> getCopies(final Kryo kryo) {
+            final ObjectMap context = kryo.getGraphContext();
+            IdentityMap<Object, List<?>> copies = (IdentityMap<Object, List<?>>) context.get(COPIES);
+            if (copies == null) {
+                copies = new IdentityMap<Object, List<?>>();
+                context.put(COPIES, copies);
+            }
+            return copies;
+        }
+
+        private List<?> copySubList(final Kryo kryo, final List<?> original) {
+            final List<?> list = (List<?>) _accessor.root(original);
+
+            if (_copyWindowOnly) {
+                // the same kind of root list, so that the copy is the same sublist type as the original
+                final int size = _accessor.size(original);
+                final List<Object> window = list instanceof RandomAccess ? new ArrayList<Object>(size) : new LinkedList<Object>();
+                for (final Object element : original) {
+                    window.add(kryo.copy(element));
+                }
+                return window.subList(0, size);
             }
+
+            final int fromIndex = _accessor.rootOffset(original);
+            final int toIndex = fromIndex + _accessor.size(original);
+            return kryo.copy(list).subList(fromIndex, toIndex);
         }
     }
 
@@ -174,7 +362,11 @@ public class SubListSerializers {
 
         public static final Class<?> SUBLIST_CLASS = SubListSerializers.getClassOrNull("java.util.ArrayList$SubList");
 
-        private final SubListSerializer delegate = new SubListSerializer("java.util.ArrayList$SubList");
+        private final SubListSerializer delegate;
+
+        public ArrayListSubListSerializer() {
+            delegate = new SubListSerializer("java.util.ArrayList$SubList");
+        }
 
         /**
          * Can be used to determine, if the given type can be handled by this serializer.
@@ -192,6 +384,41 @@ public class SubListSerializers {
             return kryo;
         }
 
+        /**
+         * @see SubListSerializers#addDefaultSerializers(Kryo, boolean, boolean)
+         */
+        public void setWindowOnly(final boolean windowOnly) {
+            delegate.setWindowOnly(windowOnly);
+        }
+
+        public boolean isWindowOnly() {
+            return delegate.isWindowOnly();
+        }
+
+        /**
+         * @see SubListSerializers#addDefaultSerializers(Kryo, boolean, boolean)
+         */
+        public void setPreserveSharedParents(final boolean preserveSharedParents) {
+            delegate.setPreserveSharedParents(preserveSharedParents);
+        }
+
+        public boolean isPreserveSharedParents() {
+            return delegate.isPreserveSharedParents();
+        }
+
+        /**
+         * @param copyWindowOnly <code>true</code> to only copy the elements that are visible through the sublist (instead of
+         *            the entire parent list). The copy is then a sublist of a new {@link ArrayList} (or a new {@link LinkedList}
+         *            when the parent list is not {@link RandomAccess}), that only contains the visible elements.
+         */
+        public void setCopyWindowOnly(final boolean copyWindowOnly) {
+            delegate.setCopyWindowOnly(copyWindowOnly);
+        }
+
+        public boolean isCopyWindowOnly() {
+            return delegate.isCopyWindowOnly();
+        }
+
         @Override
         public List<?> read(final Kryo kryo, final Input input, final Class<? extends List<?>> clazz) {
             return delegate.read(kryo, input, clazz);
@@ -216,7 +443,11 @@ public class SubListSerializers {
 
         public static final Class<?> SUBLIST_CLASS = SubListSerializers.getClassOrNull("java.util.AbstractList$SubList");
 
-        private final SubListSerializer delegate = new SubListSerializer("java.util.AbstractList$SubList");
+        private final SubListSerializer delegate;
+
+        public AbstractListSubListSerializer() {
+            delegate = new SubListSerializer("java.util.AbstractList$SubList");
+        }
 
         /**
          * Can be used to determine, if the given type can be handled by this serializer.
@@ -234,6 +465,41 @@ public class SubListSerializers {
             return kryo;
         }
 
+        /**
+         * @see SubListSerializers#addDefaultSerializers(Kryo, boolean, boolean)
+         */
+        public void setWindowOnly(final boolean windowOnly) {
+            delegate.setWindowOnly(windowOnly);
+        }
+
+        public boolean isWindowOnly() {
+            return delegate.isWindowOnly();
+        }
+
+        /**
+         * @see SubListSerializers#addDefaultSerializers(Kryo, boolean, boolean)
+         */
+        public void setPreserveSharedParents(final boolean preserveSharedParents) {
+            delegate.setPreserveSharedParents(preserveSharedParents);
+        }
+
+        public boolean isPreserveSharedParents() {
+            return delegate.isPreserveSharedParents();
+        }
+
+        /**
+         * @param copyWindowOnly <code>true</code> to only copy the elements that are visible through the sublist (instead of
+         *            the entire parent list). The copy is then a sublist of a new {@link ArrayList} (or a new {@link LinkedList}
+         *            when the parent list is not {@link RandomAccess}), that only contains the visible elements.
+         */
+        public void setCopyWindowOnly(final boolean copyWindowOnly) {
+            delegate.setCopyWindowOnly(copyWindowOnly);
+        }
+
+        public boolean isCopyWindowOnly() {
+            return delegate.isCopyWindowOnly();
+        }
+
         @Override
         public List<?> read(final Kryo kryo, final Input input, final Class<? extends List<?>> clazz) {
             return delegate.read(kryo, input, clazz);
@@ -258,19 +524,13 @@ public class SubListSerializers {
 
         public static final Class<?> SUBLIST_CLASS = SubListSerializers.getClassOrNull("java.util.SubList");
 
-        private Field _listField;
-        private Field _offsetField;
-        private Field _sizeField;
+        private final SubListSerializer delegate;
 
         public JavaUtilSubListSerializer() {
             try {
                 final Class<?> clazz = Class.forName("java.util.SubList");
-                _listField = clazz.getDeclaredField("l");
-                _offsetField = clazz.getDeclaredField("offset");
-                _sizeField = clazz.getDeclaredField("size");
-                _listField.setAccessible(true);
-                _offsetField.setAccessible(true);
-                _sizeField.setAccessible(true);
+                delegate = new SubListSerializer(new SubListAccessor(clazz.getDeclaredField("l"), clazz.getDeclaredField("offset"),
+                                                                     clazz.getDeclaredField("size")));
             } catch (final Exception e) {
                 throw new RuntimeException(e);
             }
@@ -292,43 +552,54 @@ public class SubListSerializers {
             return kryo;
         }
 
+        /**
+         * @see SubListSerializers#addDefaultSerializers(Kryo, boolean, boolean)
+         */
+        public void setWindowOnly(final boolean windowOnly) {
+            delegate.setWindowOnly(windowOnly);
+        }
+
+        public boolean isWindowOnly() {
+            return delegate.isWindowOnly();
+        }
+
+        /**
+         * @see SubListSerializers#addDefaultSerializers(Kryo, boolean, boolean)
+         */
+        public void setPreserveSharedParents(final boolean preserveSharedParents) {
+            delegate.setPreserveSharedParents(preserveSharedParents);
+        }
+
+        public boolean isPreserveSharedParents() {
+            return delegate.isPreserveSharedParents();
+        }
+
+        /**
+         * @param copyWindowOnly <code>true</code> to only copy the elements that are visible through the sublist (instead of
+         *            the entire parent list). The copy is then a sublist of a new {@link ArrayList} (or a new {@link LinkedList}
+         *            when the parent list is not {@link RandomAccess}), that only contains the visible elements.
+         */
+        public void setCopyWindowOnly(final boolean copyWindowOnly) {
+            delegate.setCopyWindowOnly(copyWindowOnly);
+        }
+
+        public boolean isCopyWindowOnly() {
+            return delegate.isCopyWindowOnly();
+        }
+
         @Override
         public List<?> read(final Kryo kryo, final Input input, final Class<? extends List<?>> clazz) {
-            kryo.reference(FAKE_REFERENCE);
-            final List<?> list = (List<?>) kryo.readClassAndObject(input);
-            final int fromIndex = input.readInt(true);
-            final int toIndex = input.readInt(true);
-            return list.subList(fromIndex, toIndex);
+            return delegate.read(kryo, input, clazz);
         }
 
         @Override
         public void write(final Kryo kryo, final Output output, final List<?> obj) {
-            try {
-                kryo.writeClassAndObject(output, _listField.get(obj));
-                final int fromIndex = _offsetField.getInt(obj);
-                output.writeInt(fromIndex, true);
-                final int toIndex = fromIndex + _sizeField.getInt(obj);
-                output.writeInt(toIndex, true);
-            } catch (final RuntimeException e) {
-                // Don't eat and wrap RuntimeExceptions because the ObjectBuffer.write...
-                // handles SerializationException specifically (resizing the buffer)...
-                throw e;
-            } catch (final Exception e) {
-                throw new RuntimeException(e);
-            }
+            delegate.write(kryo, output, obj);
         }
 
         @Override
-        public List<?> copy(final Kryo kryo, final List<?> obj) {
-            kryo.reference(FAKE_REFERENCE);
-            try {
-                final List<?> list = (List<?>) _listField.get(obj);
-                final int fromIndex = _offsetField.getInt(obj);
-                final int toIndex = fromIndex + _sizeField.getInt(obj);
-                return kryo.copy(list).subList(fromIndex, toIndex);
-            } catch(final Exception e) {
-                throw new RuntimeException(e);
-            }
+        public List<?> copy(final Kryo kryo, final List<?> original) {
+            return delegate.copy(kryo, original);
         }
     }
 }
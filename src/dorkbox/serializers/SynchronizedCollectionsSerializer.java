@@ -39,6 +39,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -53,13 +54,6 @@ import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
-import dorkbox.jna.ClassUtils;
-import javassist.ClassPool;
-import javassist.CtClass;
-import javassist.CtMethod;
-import javassist.CtNewMethod;
-import javassist.Modifier;
-
 /**
  * A kryo {@link Serializer} for synchronized {@link Collection}s and {@link Map}s
  * created via {@link Collections}.
@@ -79,89 +73,101 @@ public class SynchronizedCollectionsSerializer extends Serializer<Object> {
 
     static {
         dorkbox.updates.Updates.INSTANCE.add(SynchronizedCollectionsSerializer.class, "9e3f0fdbd0ac4e4ba887964733fe110a", getVersion());
+    }
 
-        try {
-            ClassPool pool = ClassPool.getDefault();
-
-            // allow non-reflection access to java.util.Collections...()
-            {
-                CtClass dynamicClass = pool.makeClass("java.util.SynchronizedCollectionsAccessory");
-                CtMethod method = CtNewMethod.make(
-                        "public static Object getSynchronizedCollectionField(Object nativeComp) { " +
-                        // "java.lang.System.err.println(\"Getting sync collection field!\" + ((java.util.Collections$SynchronizedCollection)nativeComp).c);" +
-                        "return ((java.util.Collections$SynchronizedCollection)nativeComp).c;" +
-                        "}", dynamicClass);
-                dynamicClass.addMethod(method);
-
-                method = CtNewMethod.make(
-                        "public static java.lang.reflect.Field initSynchronizedMapField() { " +
-                        "java.lang.reflect.Field field = Class.forName(\"java.util.Collections$SynchronizedMap\").getDeclaredField( \"m\" );" +
-                        "field.setAccessible( true );" +
-                        // "java.lang.System.err.println(\"updating sync map field!\");" +
-                        "return field;" +
-                        "}", dynamicClass);
-                dynamicClass.addMethod(method);
+    /**
+     * Accessor for the collection wrapped by the synchronized collection/list/set wrappers. This class is only initialized on
+     * the first write/copy of such a wrapper, so simply loading (or registering) the serializer, or reading, does not
+     * resolve it.
+     */
+    private static final class CollectionAccessorHolder {
+        static final CollectionAccessor ACCESSOR = create();
 
-                method = CtNewMethod.make(
-                        "public static Object getSynchronizedMapField(java.lang.reflect.Field field, Object nativeComp) { " +
-                        // "java.lang.System.err.println(\"Getting sync map field!\" + field.get(nativeComp));" +
-                        "return field.get(nativeComp);" +
-                        "}", dynamicClass);
-                dynamicClass.addMethod(method);
+        /**
+         * Does nothing, but calling it initializes this class (which resolves the accessor).
+         */
+        static void init() {
+        }
 
-                final byte[] dynamicClassBytes = dynamicClass.toBytecode();
-                ClassUtils.defineClass(null, dynamicClassBytes);
+        private static CollectionAccessor create() {
+            try {
+                return CollectionAccessor.forField( "java.util.Collections$SynchronizedCollection", "c" );
+            } catch ( final Exception e ) {
+                // we are not permitted to use method handles (java.util is not open to us), so fallback to javassist
+                CollectionAccessor.checkJavassist( "java.util.Collections$SynchronizedCollection", e );
+                JavassistAccessors.synchronizedCollections();
+
+                return new CollectionAccessor() {
+                    @Override
+                    Object get( final Object wrapper ) {
+                        return SynchronizedCollectionJavaAccessor.SynchronizedCollection_Field( wrapper );
+                    }
+                };
             }
+        }
+    }
 
-            // fix the accessor class to point to the generated proxy/accessory class
-            {
-                CtClass classFixer = pool.get("dorkbox.serializers.SynchronizedCollectionJavaAccessor");
-
-                CtMethod ctMethod = classFixer.getDeclaredMethod("SynchronizedCollection_Field");
-                ctMethod.setBody("{" +
-                                 "return java.util.SynchronizedCollectionsAccessory.getSynchronizedCollectionField($1);" +
-                                 "}");
-                // perform pre-verification for the modified method
-                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
-
-
-                ctMethod = classFixer.getDeclaredMethod("initSynchronizedMap_Field");
-                ctMethod.setBody("{" +
-                                 "dorkbox.serializers.SynchronizedCollectionJavaAccessor.SOURCE_MAP_FIELD = java.util.SynchronizedCollectionsAccessory.initSynchronizedMapField();" +
-                                 "}");
-                // perform pre-verification for the modified method
-                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
-
-
-                ctMethod = classFixer.getDeclaredMethod("SynchronizedMap_Field");
-                ctMethod.setBody("{" +
-                                 "return java.util.SynchronizedCollectionsAccessory.getSynchronizedMapField(dorkbox.serializers.SynchronizedCollectionJavaAccessor.SOURCE_MAP_FIELD, $1);" +
-                                 "}");
-                // perform pre-verification for the modified method
-                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
-
-
-                // perform pre-verification for the modified method
-                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
+    /**
+     * Accessor for the map wrapped by the synchronized map wrappers. This class is only initialized on the first write/copy
+     * of such a wrapper.
+     */
+    private static final class MapAccessorHolder {
+        static final CollectionAccessor ACCESSOR = create();
 
+        /**
+         * Does nothing, but calling it initializes this class (which resolves the accessor).
+         */
+        static void init() {
+        }
 
-                final byte[] classFixerBytes = classFixer.toBytecode();
-                ClassUtils.defineClass(ClassLoader.getSystemClassLoader(), classFixerBytes);
+        private static CollectionAccessor create() {
+            try {
+                return CollectionAccessor.forField( "java.util.Collections$SynchronizedMap", "m" );
+            } catch ( final Exception e ) {
+                // we are not permitted to use method handles (java.util is not open to us), so fallback to javassist
+                CollectionAccessor.checkJavassist( "java.util.Collections$SynchronizedMap", e );
+                JavassistAccessors.synchronizedCollections();
+
+                return new CollectionAccessor() {
+                    @Override
+                    Object get( final Object wrapper ) {
+                        return SynchronizedCollectionJavaAccessor.SynchronizedMap_Field( wrapper );
+                    }
+                };
             }
+        }
+    }
+
+    /**
+     * The accessors for the wrapped collections/maps are resolved on first use (which is on the first write or copy, reading
+     * never needs them). This resolves them eagerly instead, for example during application startup.
+     */
+    public static void warmUp() {
+        CollectionAccessorHolder.init();
+        MapAccessorHolder.init();
+    }
 
+    /**
+     * The wrapper type this serializer is dedicated to, or {@code null} if the wrapper type is written as an ordinal.
+     */
+    private final SynchronizedCollection dedicatedType;
 
-            // setup reflection, but it's done from INSIDE THE SAME PACKAGE (so no warnings/etc)
-            SynchronizedCollectionJavaAccessor.initSynchronizedMap_Field();
+    public SynchronizedCollectionsSerializer() {
+        this( null );
+    }
 
-        } catch ( final Exception e ) {
-            throw new RuntimeException( "Could not modify SynchronizedCollection", e );
-        }
+    private SynchronizedCollectionsSerializer( final SynchronizedCollection dedicatedType ) {
+        this.dedicatedType = dedicatedType;
     }
 
     @Override
     public Object read(final Kryo kryo, final Input input, final Class<? extends Object> clazz) {
+        if ( dedicatedType != null ) {
+            return dedicatedType.create( kryo.readClassAndObject( input ) );
+        }
+
         final int ordinal = input.readInt( true );
-        final SynchronizedCollection collection = SynchronizedCollection.values()[ordinal];
+        final SynchronizedCollection collection = SynchronizedCollection.valueOfOrdinal(ordinal);
         final Object sourceCollection = kryo.readClassAndObject( input );
         return collection.create( sourceCollection );
     }
@@ -169,6 +175,13 @@ public class SynchronizedCollectionsSerializer extends Serializer<Object> {
     @Override
     public void write(final Kryo kryo, final Output output, final Object object) {
         try {
+            if ( dedicatedType != null ) {
+                synchronized (object) {
+                    kryo.writeClassAndObject( output, dedicatedType.getValue( object ) );
+                }
+                return;
+            }
+
             final SynchronizedCollection collection = SynchronizedCollection.valueOfType( object.getClass() );
             // the ordinal could be replaced by something else (e.g. a explicitly managed "id")
             output.writeInt( collection.ordinal(), true );
@@ -187,7 +200,7 @@ public class SynchronizedCollectionsSerializer extends Serializer<Object> {
     @Override
     public Object copy(Kryo kryo, Object original) {
       try {
-          final SynchronizedCollection collection = SynchronizedCollection.valueOfType( original.getClass() );
+          final SynchronizedCollection collection = dedicatedType != null ? dedicatedType : SynchronizedCollection.valueOfType( original.getClass() );
           Object sourceCollectionCopy = kryo.copy(collection.getValue(original));
           return collection.create( sourceCollectionCopy );
       } catch ( final RuntimeException e ) {
@@ -206,7 +219,7 @@ public class SynchronizedCollectionsSerializer extends Serializer<Object> {
             }
             @Override
             public Object getValue( final Object sourceCollection ) {
-                return SynchronizedCollectionJavaAccessor.SynchronizedCollection_Field(sourceCollection );
+                return CollectionAccessorHolder.ACCESSOR.get(sourceCollection );
             }
         },
         RANDOM_ACCESS_LIST( Collections.synchronizedList( new ArrayList<Void>() ).getClass() ){
@@ -216,7 +229,7 @@ public class SynchronizedCollectionsSerializer extends Serializer<Object> {
             }
             @Override
             public Object getValue( final Object sourceCollection ) {
-                return SynchronizedCollectionJavaAccessor.SynchronizedCollection_Field(sourceCollection );
+                return CollectionAccessorHolder.ACCESSOR.get(sourceCollection );
             }
         },
         LIST( Collections.synchronizedList( new LinkedList<Void>() ).getClass() ){
@@ -226,7 +239,7 @@ public class SynchronizedCollectionsSerializer extends Serializer<Object> {
             }
             @Override
             public Object getValue( final Object sourceCollection ) {
-                return SynchronizedCollectionJavaAccessor.SynchronizedCollection_Field(sourceCollection );
+                return CollectionAccessorHolder.ACCESSOR.get(sourceCollection );
             }
         },
         SET( Collections.synchronizedSet( new HashSet<Void>() ).getClass() ){
@@ -236,7 +249,7 @@ public class SynchronizedCollectionsSerializer extends Serializer<Object> {
             }
             @Override
             public Object getValue( final Object sourceCollection ) {
-                return SynchronizedCollectionJavaAccessor.SynchronizedCollection_Field(sourceCollection );
+                return CollectionAccessorHolder.ACCESSOR.get(sourceCollection );
             }
         },
         SORTED_SET( Collections.synchronizedSortedSet( new TreeSet<Void>() ).getClass() ){
@@ -246,7 +259,7 @@ public class SynchronizedCollectionsSerializer extends Serializer<Object> {
             }
             @Override
             public Object getValue( final Object sourceCollection ) {
-                return SynchronizedCollectionJavaAccessor.SynchronizedCollection_Field(sourceCollection );
+                return CollectionAccessorHolder.ACCESSOR.get(sourceCollection );
             }
         },
         MAP( Collections.synchronizedMap( new HashMap<Void, Void>() ).getClass() ) {
@@ -257,7 +270,7 @@ public class SynchronizedCollectionsSerializer extends Serializer<Object> {
             }
             @Override
             public Object getValue( final Object sourceCollection ) {
-                return SynchronizedCollectionJavaAccessor.SynchronizedMap_Field(sourceCollection );
+                return MapAccessorHolder.ACCESSOR.get(sourceCollection );
             }
         },
         SORTED_MAP( Collections.synchronizedSortedMap( new TreeMap<Void, Void>() ).getClass() ) {
@@ -267,7 +280,7 @@ public class SynchronizedCollectionsSerializer extends Serializer<Object> {
             }
             @Override
             public Object getValue( final Object sourceCollection ) {
-                return SynchronizedCollectionJavaAccessor.SynchronizedMap_Field(sourceCollection );
+                return MapAccessorHolder.ACCESSOR.get(sourceCollection );
             }
         };
         
@@ -283,13 +296,32 @@ public class SynchronizedCollectionsSerializer extends Serializer<Object> {
         public abstract Object create( Object sourceCollection );
         public abstract Object getValue( Object sourceCollection );
 
+        /**
+         * {@link #values()} clones the array on every call, so it is only done once.
+         */
+        private static final SynchronizedCollection[] VALUES = values();
+
+        /**
+         * Constant-time lookup of the concrete (runtime) wrapper class. This is filled once and only read afterwards, and it only
+         * references the (bootstrap) wrapper classes, so unlike a ClassValue it never attaches anything to other classes.
+         */
+        private static final IdentityHashMap<Class<?>, SynchronizedCollection> BY_TYPE = new IdentityHashMap<Class<?>, SynchronizedCollection>();
+        static {
+            for( final SynchronizedCollection item : VALUES ) {
+                BY_TYPE.put( item.type, item );
+            }
+        }
+
         static SynchronizedCollection valueOfType( final Class<?> type ) {
-            for( final SynchronizedCollection item : values() ) {
-                if ( item.type.equals( type ) ) {
-                    return item;
-                }
+            final SynchronizedCollection item = BY_TYPE.get( type );
+            if ( item == null ) {
+                throw new IllegalArgumentException( "The type " + type + " is not supported." );
             }
-            throw new IllegalArgumentException( "The type " + type + " is not supported." );
+            return item;
+        }
+
+        static SynchronizedCollection valueOfOrdinal( final int ordinal ) {
+            return VALUES[ordinal];
         }
         
     }
@@ -310,9 +342,26 @@ public class SynchronizedCollectionsSerializer extends Serializer<Object> {
      */
     public static void registerSerializers( final Kryo kryo ) {
         final SynchronizedCollectionsSerializer serializer = new SynchronizedCollectionsSerializer();
-        SynchronizedCollection[] values = SynchronizedCollection.values();
-        for ( final SynchronizedCollection item : values) {
+        for ( final SynchronizedCollection item : SynchronizedCollection.VALUES ) {
             kryo.register( item.type, serializer );
         }
     }
+
+    /**
+     * Registers a dedicated {@link SynchronizedCollectionsSerializer} for each of the synchronized Collections that can be created via
+     * {@link Collections}, including {@link Map}s.
+     * <p/>
+     * Each serializer is bound to exactly one wrapper type, so the wrapper type is known from the kryo registration
+     * and is not written to the stream (saving one varint per wrapper). This is a different wire format from
+     * {@link #registerSerializers(Kryo)}, so both sides must register the serializers the same way.
+     *
+     * @param kryo the {@link Kryo} instance to set the serializers on.
+     *
+     * @see #registerSerializers(Kryo)
+     */
+    public static void registerDedicatedSerializers( final Kryo kryo ) {
+        for ( final SynchronizedCollection item : SynchronizedCollection.VALUES ) {
+            kryo.register( item.type, new SynchronizedCollectionsSerializer( item ) );
+        }
+    }
 }
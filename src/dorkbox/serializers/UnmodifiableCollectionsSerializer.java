@@ -37,6 +37,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -51,13 +52,6 @@ import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
-import dorkbox.jna.ClassUtils;
-import javassist.ClassPool;
-import javassist.CtClass;
-import javassist.CtMethod;
-import javassist.CtNewMethod;
-import javassist.Modifier;
-
 /**
  * A kryo {@link Serializer} for unmodifiable {@link Collection}s and {@link Map}s
  * created via {@link Collections}.
@@ -79,89 +73,101 @@ public class UnmodifiableCollectionsSerializer extends Serializer<Object> {
     static {
         // Add this project to the updates system, which verifies this class + UUID + version information
         dorkbox.updates.Updates.INSTANCE.add(UnmodifiableCollectionsSerializer.class, "316353f5338341a8a3edc01d702703f8", getVersion());
+    }
 
-        try {
-            ClassPool pool = ClassPool.getDefault();
-
-            // allow non-reflection access to java.util.Collections...()
-            {
-                CtClass dynamicClass = pool.makeClass("java.util.UnmodifiableCollectionsAccessory");
-                CtMethod method = CtNewMethod.make(
-                        "public static Object getUnmodifiableCollectionField(Object nativeComp) { " +
-                        // "java.lang.System.err.println(\"Getting collection field!\" + ((java.util.Collections$UnmodifiableCollection)nativeComp).c);" +
-                        "return ((java.util.Collections$UnmodifiableCollection)nativeComp).c;" +
-                        "}", dynamicClass);
-                dynamicClass.addMethod(method);
-
-                method = CtNewMethod.make(
-                        "public static java.lang.reflect.Field initUnmodifiableMapField() { " +
-                        "java.lang.reflect.Field field = Class.forName(\"java.util.Collections$UnmodifiableMap\").getDeclaredField( \"m\" );" +
-                        "field.setAccessible( true );" +
-                        // "java.lang.System.err.println(\"updating map field!\");" +
-                        "return field;" +
-                        "}", dynamicClass);
-                dynamicClass.addMethod(method);
-
-                method = CtNewMethod.make(
-                        "public static Object getUnmodifiableMapField(java.lang.reflect.Field field, Object nativeComp) { " +
-                        // "java.lang.System.err.println(\"Getting map field!\" + field.get(nativeComp));" +
-                        "return field.get(nativeComp);" +
-                        "}", dynamicClass);
-                dynamicClass.addMethod(method);
-
-                final byte[] dynamicClassBytes = dynamicClass.toBytecode();
-                ClassUtils.defineClass(null, dynamicClassBytes);
-            }
-
-            // fix the accessor class to point to the generated proxy/accessory class
-            {
-                CtClass classFixer = pool.get("dorkbox.serializers.UnmodifiableCollectionJavaAccessor");
-
-                CtMethod ctMethod = classFixer.getDeclaredMethod("UnmodifiableCollection_Field");
-                ctMethod.setBody("{" +
-                                 "return java.util.UnmodifiableCollectionsAccessory.getUnmodifiableCollectionField($1);" +
-                                 "}");
-                // perform pre-verification for the modified method
-                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
-
-
-                ctMethod = classFixer.getDeclaredMethod("initUnmodifiableMap_Field");
-                ctMethod.setBody("{" +
-                                 "dorkbox.serializers.UnmodifiableCollectionJavaAccessor.SOURCE_MAP_FIELD = java.util.UnmodifiableCollectionsAccessory.initUnmodifiableMapField();" +
-                                 "}");
-                // perform pre-verification for the modified method
-                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
-
+    /**
+     * Accessor for the collection wrapped by the unmodifiable collection/list/set wrappers. This class is only initialized on
+     * the first write/copy of such a wrapper, so simply loading (or registering) the serializer, or reading, does not
+     * resolve it.
+     */
+    private static final class CollectionAccessorHolder {
+        static final CollectionAccessor ACCESSOR = create();
 
-                ctMethod = classFixer.getDeclaredMethod("UnmodifiableMap_Field");
-                ctMethod.setBody("{" +
-                                 "return java.util.UnmodifiableCollectionsAccessory.getUnmodifiableMapField(dorkbox.serializers.UnmodifiableCollectionJavaAccessor.SOURCE_MAP_FIELD, $1);" +
-                                 "}");
-                // perform pre-verification for the modified method
-                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
+        /**
+         * Does nothing, but calling it initializes this class (which resolves the accessor).
+         */
+        static void init() {
+        }
 
+        private static CollectionAccessor create() {
+            try {
+                return CollectionAccessor.forField( "java.util.Collections$UnmodifiableCollection", "c" );
+            } catch ( final Exception e ) {
+                // we are not permitted to use method handles (java.util is not open to us), so fallback to javassist
+                CollectionAccessor.checkJavassist( "java.util.Collections$UnmodifiableCollection", e );
+                JavassistAccessors.unmodifiableCollections();
+
+                return new CollectionAccessor() {
+                    @Override
+                    Object get( final Object wrapper ) {
+                        return UnmodifiableCollectionJavaAccessor.UnmodifiableCollection_Field( wrapper );
+                    }
+                };
+            }
+        }
+    }
 
-                // perform pre-verification for the modified method
-                ctMethod.getMethodInfo().rebuildStackMapForME(pool);
+    /**
+     * Accessor for the map wrapped by the unmodifiable map wrappers. This class is only initialized on the first write/copy
+     * of such a wrapper.
+     */
+    private static final class MapAccessorHolder {
+        static final CollectionAccessor ACCESSOR = create();
 
+        /**
+         * Does nothing, but calling it initializes this class (which resolves the accessor).
+         */
+        static void init() {
+        }
 
-                final byte[] classFixerBytes = classFixer.toBytecode();
-                ClassUtils.defineClass(ClassLoader.getSystemClassLoader(), classFixerBytes);
+        private static CollectionAccessor create() {
+            try {
+                return CollectionAccessor.forField( "java.util.Collections$UnmodifiableMap", "m" );
+            } catch ( final Exception e ) {
+                // we are not permitted to use method handles (java.util is not open to us), so fallback to javassist
+                CollectionAccessor.checkJavassist( "java.util.Collections$UnmodifiableMap", e );
+                JavassistAccessors.unmodifiableCollections();
+
+                return new CollectionAccessor() {
+                    @Override
+                    Object get( final Object wrapper ) {
+                        return UnmodifiableCollectionJavaAccessor.UnmodifiableMap_Field( wrapper );
+                    }
+                };
             }
+        }
+    }
+
+    /**
+     * The accessors for the wrapped collections/maps are resolved on first use (which is on the first write or copy, reading
+     * never needs them). This resolves them eagerly instead, for example during application startup.
+     */
+    public static void warmUp() {
+        CollectionAccessorHolder.init();
+        MapAccessorHolder.init();
+    }
 
+    /**
+     * The wrapper type this serializer is dedicated to, or {@code null} if the wrapper type is written as an ordinal.
+     */
+    private final UnmodifiableCollection dedicatedType;
 
-            // setup reflection, but it's done from INSIDE THE SAME PACKAGE (so no warnings/etc)
-            UnmodifiableCollectionJavaAccessor.initUnmodifiableMap_Field();
+    public UnmodifiableCollectionsSerializer() {
+        this( null );
+    }
 
-        } catch ( final Exception e ) {
-            throw new RuntimeException( "Could not modify UnmodifiableCollection", e );
-        }
+    private UnmodifiableCollectionsSerializer( final UnmodifiableCollection dedicatedType ) {
+        this.dedicatedType = dedicatedType;
     }
 
     @Override
     public Object read(final Kryo kryo, final Input input, final Class<? extends Object> clazz) {
+        if ( dedicatedType != null ) {
+            return dedicatedType.create( kryo.readClassAndObject( input ) );
+        }
+
         final int ordinal = input.readInt( true );
-        final UnmodifiableCollection unmodifiableCollection = UnmodifiableCollection.values()[ordinal];
+        final UnmodifiableCollection unmodifiableCollection = UnmodifiableCollection.valueOfOrdinal(ordinal);
         final Object sourceCollection = kryo.readClassAndObject( input );
         return unmodifiableCollection.create( sourceCollection );
     }
@@ -169,6 +175,11 @@ public class UnmodifiableCollectionsSerializer extends Serializer<Object> {
     @Override
     public void write(final Kryo kryo, final Output output, final Object object) {
         try {
+            if ( dedicatedType != null ) {
+                kryo.writeClassAndObject( output, dedicatedType.getValue( object ) );
+                return;
+            }
+
             final UnmodifiableCollection unmodifiableCollection = UnmodifiableCollection.valueOfType( object.getClass() );
 
             // the ordinal could be replaced by something else (e.g. an explicitly managed "id")
@@ -186,7 +197,7 @@ public class UnmodifiableCollectionsSerializer extends Serializer<Object> {
     @Override
     public Object copy(Kryo kryo, Object original) {
         try {
-            final UnmodifiableCollection unmodifiableCollection = UnmodifiableCollection.valueOfType( original.getClass() );
+            final UnmodifiableCollection unmodifiableCollection = dedicatedType != null ? dedicatedType : UnmodifiableCollection.valueOfType( original.getClass() );
             Object sourceCollectionCopy = kryo.copy(unmodifiableCollection.getValue(original));
             return unmodifiableCollection.create( sourceCollectionCopy );
         } catch ( final RuntimeException e ) {
@@ -205,7 +216,7 @@ public class UnmodifiableCollectionsSerializer extends Serializer<Object> {
             }
             @Override
             public Object getValue( final Object sourceCollection ) {
-                return UnmodifiableCollectionJavaAccessor.UnmodifiableCollection_Field(sourceCollection);
+                return CollectionAccessorHolder.ACCESSOR.get(sourceCollection);
             }
         },
         RANDOM_ACCESS_LIST( Collections.unmodifiableList( new ArrayList<Void>() ).getClass() ){
@@ -215,7 +226,7 @@ public class UnmodifiableCollectionsSerializer extends Serializer<Object> {
             }
             @Override
             public Object getValue( final Object sourceCollection ) {
-                return UnmodifiableCollectionJavaAccessor.UnmodifiableCollection_Field(sourceCollection);
+                return CollectionAccessorHolder.ACCESSOR.get(sourceCollection);
             }
         },
         LIST( Collections.unmodifiableList( new LinkedList<Void>() ).getClass() ){
@@ -225,7 +236,7 @@ public class UnmodifiableCollectionsSerializer extends Serializer<Object> {
             }
             @Override
             public Object getValue( final Object sourceCollection ) {
-                return UnmodifiableCollectionJavaAccessor.UnmodifiableCollection_Field(sourceCollection);
+                return CollectionAccessorHolder.ACCESSOR.get(sourceCollection);
             }
         },
         SET( Collections.unmodifiableSet( new HashSet<Void>() ).getClass() ){
@@ -235,7 +246,7 @@ public class UnmodifiableCollectionsSerializer extends Serializer<Object> {
             }
             @Override
             public Object getValue( final Object sourceCollection ) {
-                return UnmodifiableCollectionJavaAccessor.UnmodifiableCollection_Field(sourceCollection);
+                return CollectionAccessorHolder.ACCESSOR.get(sourceCollection);
             }
         },
         SORTED_SET( Collections.unmodifiableSortedSet( new TreeSet<Void>() ).getClass() ){
@@ -245,7 +256,7 @@ public class UnmodifiableCollectionsSerializer extends Serializer<Object> {
             }
             @Override
             public Object getValue( final Object sourceCollection ) {
-                return UnmodifiableCollectionJavaAccessor.UnmodifiableCollection_Field(sourceCollection);
+                return CollectionAccessorHolder.ACCESSOR.get(sourceCollection);
             }
         },
         MAP( Collections.unmodifiableMap( new HashMap<Void, Void>() ).getClass() ) {
@@ -256,7 +267,7 @@ public class UnmodifiableCollectionsSerializer extends Serializer<Object> {
             }
             @Override
             public Object getValue( final Object sourceCollection ) {
-                return UnmodifiableCollectionJavaAccessor.UnmodifiableMap_Field(sourceCollection);
+                return MapAccessorHolder.ACCESSOR.get(sourceCollection);
             }
         },
         SORTED_MAP( Collections.unmodifiableSortedMap( new TreeMap<Void, Void>() ).getClass() ) {
@@ -266,7 +277,7 @@ public class UnmodifiableCollectionsSerializer extends Serializer<Object> {
             }
             @Override
             public Object getValue( final Object sourceCollection ) {
-                return UnmodifiableCollectionJavaAccessor.UnmodifiableMap_Field(sourceCollection);
+                return MapAccessorHolder.ACCESSOR.get(sourceCollection);
             }
         };
         
@@ -283,13 +294,32 @@ public class UnmodifiableCollectionsSerializer extends Serializer<Object> {
         public abstract Object getValue( Object sourceCollection );
 
 
+        /**
+         * {@link #values()} clones the array on every call, so it is only done once.
+         */
+        private static final UnmodifiableCollection[] VALUES = values();
+
+        /**
+         * Constant-time lookup of the concrete (runtime) wrapper class. This is filled once and only read afterwards, and it only
+         * references the (bootstrap) wrapper classes, so unlike a ClassValue it never attaches anything to other classes.
+         */
+        private static final IdentityHashMap<Class<?>, UnmodifiableCollection> BY_TYPE = new IdentityHashMap<Class<?>, UnmodifiableCollection>();
+        static {
+            for( final UnmodifiableCollection item : VALUES ) {
+                BY_TYPE.put( item.type, item );
+            }
+        }
+
         static UnmodifiableCollection valueOfType( final Class<?> type ) {
-            for( final UnmodifiableCollection item : values() ) {
-                if ( item.type.equals( type ) ) {
-                    return item;
-                }
+            final UnmodifiableCollection item = BY_TYPE.get( type );
+            if ( item == null ) {
+                throw new IllegalArgumentException( "The type " + type + " is not supported." );
             }
-            throw new IllegalArgumentException( "The type " + type + " is not supported." );
+            return item;
+        }
+
+        static UnmodifiableCollection valueOfOrdinal( final int ordinal ) {
+            return VALUES[ordinal];
         }
     }
 
@@ -309,9 +339,26 @@ public class UnmodifiableCollectionsSerializer extends Serializer<Object> {
      */
     public static void registerSerializers( final Kryo kryo ) {
         final UnmodifiableCollectionsSerializer serializer = new UnmodifiableCollectionsSerializer();
-        UnmodifiableCollection[] values = UnmodifiableCollection.values();
-        for ( final UnmodifiableCollection item : values) {
+        for ( final UnmodifiableCollection item : UnmodifiableCollection.VALUES ) {
             kryo.register( item.type, serializer );
         }
     }
+
+    /**
+     * Registers a dedicated {@link UnmodifiableCollectionsSerializer} for each of the unmodifiable Collections that can be created via
+     * {@link Collections}, including {@link Map}s.
+     * <p/>
+     * Each serializer is bound to exactly one wrapper type, so the wrapper type is known from the kryo registration
+     * and is not written to the stream (saving one varint per wrapper). This is a different wire format from
+     * {@link #registerSerializers(Kryo)}, so both sides must register the serializers the same way.
+     *
+     * @param kryo the {@link Kryo} instance to set the serializers on.
+     *
+     * @see #registerSerializers(Kryo)
+     */
+    public static void registerDedicatedSerializers( final Kryo kryo ) {
+        for ( final UnmodifiableCollection item : UnmodifiableCollection.VALUES ) {
+            kryo.register( item.type, new UnmodifiableCollectionsSerializer( item ) );
+        }
+    }
 }
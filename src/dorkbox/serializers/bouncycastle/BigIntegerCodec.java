@@ -0,0 +1,114 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dorkbox.serializers.bouncycastle;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigInteger;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.ObjectMap;
+
+/**
+ * Writes and reads a {@link BigInteger} as the length + the bytes of {@link BigInteger#toByteArray()}.
+ * <p/>
+ * On read, the bytes are read into a scratch buffer that is kept in the graph context of the Kryo instance (so it is shared by
+ * all the values of an object graph, and by no other thread), and the BigInteger is created from a range of it. The range
+ * constructor only exists on java 9+, on java 8 every value is read into a new array.
+ */
+final
+class BigIntegerCodec {
+
+    /**
+     * BigInteger(byte[], int, int) only exists on java 9+, and we compile for java 8.
+     */
+    private static final MethodHandle FROM_RANGE = getFromRange();
+
+    // the key of the scratch buffer in the graph context
+    private static final Object SCRATCH = new Object();
+
+    private static
+    MethodHandle getFromRange() {
+        try {
+            return MethodHandles.publicLookup()
+                                .findConstructor(BigInteger.class, MethodType.methodType(void.class, byte[].class, int.class, int.class));
+        } catch (final Exception ignored) {
+            // java 8
+            return null;
+        }
+    }
+
+    private
+    BigIntegerCodec() {
+    }
+
+    /**
+     * Writes the length + the bytes of {@link BigInteger#toByteArray()}.
+     */
+    static
+    void write(final Output output, final BigInteger value) throws KryoException {
+        final byte[] bytes = value.toByteArray();
+        output.writeInt(bytes.length, true);
+        output.writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Reads the length + the bytes of {@link BigInteger#toByteArray()}.
+     *
+     * @param kryo the scratch buffer is kept in its graph context, or null to read the value into a new array
+     */
+    static
+    BigInteger read(final Kryo kryo, final Input input) throws KryoException {
+        return read(kryo, input, input.readInt(true));
+    }
+
+    /**
+     * Reads the bytes of {@link BigInteger#toByteArray()} (when the length was already read).
+     *
+     * @param kryo the scratch buffer is kept in its graph context, or null to read the value into a new array
+     */
+    static
+    BigInteger read(final Kryo kryo, final Input input, final int length) throws KryoException {
+        if (FROM_RANGE == null || kryo == null) {
+            final byte[] bytes = new byte[length];
+            input.readBytes(bytes, 0, length);
+            return new BigInteger(bytes);
+        }
+
+        final ObjectMap context = kryo.getGraphContext();
+        byte[] scratch = (byte[]) context.get(SCRATCH);
+        if (scratch == null || scratch.length < length) {
+            scratch = new byte[length];
+            context.put(SCRATCH, scratch);
+        }
+        input.readBytes(scratch, 0, length);
+
+        try {
+            return (BigInteger) FROM_RANGE.invokeExact(scratch, 0, length);
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new KryoException(e);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dorkbox.serializers.bouncycastle;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.ObjectMap;
+
+/**
+ * A bounded LRU cache of decoded (immutable) keys, by their encoded bytes.
+ * <p/>
+ * To read a key, the encoded bytes are first copied out of the input (without decoding anything, see {@link Encoded}), and
+ * if a key with the same encoded bytes was decoded before, that key is returned. Otherwise the key is decoded from the copied
+ * bytes (see {@link Encoded#decoder()}) and added to the cache. The lookup is by the hash of the encoded bytes, but the encoded
+ * bytes are always compared in full, so a hash collision can never return a different key.
+ * <p/>
+ * The copied bytes are kept in the graph context of the Kryo instance that reads, and the cache itself is synchronized, so a
+ * serializer with a cache can be shared by different Kryo instances.
+ */
+final
+class DecodedKeyCache<T> {
+
+    // the key of the encoded bytes in the graph context
+    private static final Object ENCODED = new Object();
+
+    private final Map<EncodedKey, T> keys;
+
+    DecodedKeyCache(final int maximumSize) {
+        keys = new LinkedHashMap<EncodedKey, T>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected
+            boolean removeEldestEntry(final Map.Entry<EncodedKey, T> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Starts copying the encoded bytes of a new key.
+     *
+     * @return the (empty) encoded bytes of the graph that is read by this Kryo instance
+     */
+    static
+    Encoded encoded(final Kryo kryo) {
+        final ObjectMap context = kryo.getGraphContext();
+        Encoded encoded = (Encoded) context.get(ENCODED);
+        if (encoded == null) {
+            encoded = new Encoded();
+            context.put(ENCODED, encoded);
+        }
+        encoded.bytes.reset();
+        return encoded;
+    }
+
+    /**
+     * @return the previously decoded key with the same encoded bytes as the copied bytes, or null
+     */
+    T get(final Encoded encoded) {
+        final Output bytes = encoded.bytes;
+        encoded.lookup.set(bytes.getBuffer(), bytes.position());
+
+        // an access-ordered map is modified by get()
+        synchronized (keys) {
+            return keys.get(encoded.lookup);
+        }
+    }
+
+    /**
+     * Adds the key that was decoded from the copied bytes.
+     */
+    void put(final Encoded encoded, final T key) {
+        final Output bytes = encoded.bytes;
+        final EncodedKey encodedKey = new EncodedKey();
+        encodedKey.set(Arrays.copyOf(bytes.getBuffer(), bytes.position()), bytes.position());
+
+        synchronized (keys) {
+            keys.put(encodedKey, key);
+        }
+    }
+
+
+    /**
+     * The encoded bytes of the key that is being read.
+     */
+    static final
+    class Encoded {
+        private final Output bytes = new Output(256, -1);
+        private final Input decoder = new Input();
+        private final EncodedKey lookup = new EncodedKey();
+        private byte[] scratch = new byte[256];
+
+        private
+        Encoded() {
+        }
+
+        /**
+         * Copies a byte.
+         */
+        byte copyByte(final Input input) throws KryoException {
+            final byte value = input.readByte();
+            bytes.writeByte(value);
+            return value;
+        }
+
+        /**
+         * Copies a variable length int.
+         */
+        int copyInt(final Input input) throws KryoException {
+            final int value = input.readInt(true);
+            bytes.writeInt(value, true);
+            return value;
+        }
+
+        /**
+         * Copies a string.
+         */
+        void copyString(final Input input) throws KryoException {
+            bytes.writeString(input.readString());
+        }
+
+        /**
+         * Copies the variable length int length + that many bytes.
+         */
+        void copyBytes(final Input input) throws KryoException {
+            copyBytes(input, copyInt(input));
+        }
+
+        /**
+         * Copies the specified number of bytes.
+         */
+        void copyBytes(final Input input, final int length) throws KryoException {
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            input.readBytes(scratch, 0, length);
+            bytes.writeBytes(scratch, 0, length);
+        }
+
+        /**
+         * @return an input over the copied bytes, to decode the key from
+         */
+        Input decoder() {
+            decoder.setBuffer(bytes.getBuffer(), 0, bytes.position());
+            return decoder;
+        }
+    }
+
+
+    private static final
+    class EncodedKey {
+        private byte[] bytes;
+        private int length;
+        private int hash;
+
+        void set(final byte[] bytes, final int length) {
+            this.bytes = bytes;
+            this.length = length;
+
+            int hash = 1;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public
+        int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public
+        boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof EncodedKey)) {
+                return false;
+            }
+
+            final EncodedKey other = (EncodedKey) obj;
+            if (hash != other.hash || length != other.length) {
+                return false;
+            }
+
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != other.bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -16,6 +16,8 @@
 package dorkbox.serializers.bouncycastle;
 
 import java.math.BigInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.x9.X9ECParameters;
@@ -24,37 +26,115 @@ import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
 import org.bouncycastle.math.ec.ECCurve;
 import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.Strings;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
-import com.esotericsoftware.reflectasm.FieldAccess;
 
 /**
  * Only public keys are ever sent across the wire.
+ * <p/>
+ * The curve is written as: {@code usesName} + the name, {@code usesOid} + the OID, or {@code usesExtended} + the extended type
+ * ({@code extendedCurve} + the entire curve, or {@code extendedId} + the registry ID, in which case N and G are not written).
+ * <p/>
+ * Older versions wrote the entire curve without a marker, starting with the length of 'a'. That length is never 0, so
+ * {@code usesExtended} does not collide with it, and the older format can still be read (except when 'a' was 1 or 2 bytes
+ * long, which collides with the name/OID markers and which the older versions could not read back either). This is a format
+ * break the other way around: older versions cannot read a curve that is written with {@code usesExtended}, which is every
+ * curve that is not named, and every curve in the registry.
  */
 public
 class EccPrivateKeySerializer extends Serializer<ECPrivateKeyParameters> {
 
-    // we use ASM here
-    private static final FieldAccess ecCurveAccess = FieldAccess.get(ECCurve.class);
-    private static final int ecCoordIndex = ecCurveAccess.getIndex("coord");
-
-
+    // the curve is written as: usesName + the name, usesOid + the OID, or usesExtended + the extended type.
+    // Older versions wrote the entire curve without a marker (0 is never a valid length, so it does not collide with those).
+    private static final byte usesExtended = (byte) 0;
     private static final byte usesName = (byte) 1;
     private static final byte usesOid = (byte) 2;
 
+    // the extended types: extendedCurve + the entire curve, or extendedId + the registry ID
+    private static final byte extendedCurve = (byte) 0;
+    private static final byte extendedId = (byte) 1;
+
+    /**
+     * The well-known named curves, which are written as a one-byte ID (the index in this array). This is part of the wire
+     * format, so entries may only ever be appended! Curves that are not in the registry are written by name or OID.
+     */
+    private static final String[] curveRegistry = new String[] {
+            "curve25519",
+            "secp256r1",
+            "secp384r1",
+            "secp521r1",
+            "secp256k1",
+            "secp224r1",
+            "secp224k1",
+            "secp192r1",
+            "secp192k1",
+            "sm2p256v1",
+    };
+
+    /**
+     * How a curve (by class) is written. The bouncycastle named curves each have their own class, so resolving the name/OID
+     * once per class is enough.
+     */
+    private static final ClassValue<NamedCurve> namedCurves = new ClassValue<NamedCurve>() {
+        @Override
+        protected
+        NamedCurve computeValue(final Class<?> type) {
+            return NamedCurve.forClass(type);
+        }
+    };
+
+    /**
+     * The resolved curves, by lower case name (bouncycastle looks the names up case-insensitively) and by the OID bouncycastle
+     * registered them under. Names and OIDs that are not known are never added, so these are bounded by the number of named
+     * curves (no matter what is read from the wire).
+     */
+    private static final ConcurrentHashMap<String, ECCurve> curvesByName = new ConcurrentHashMap<String, ECCurve>();
+    private static final ConcurrentHashMap<String, ECCurve> curvesByOid = new ConcurrentHashMap<String, ECCurve>();
+
+    /**
+     * The standard domain parameters of the curves in the registry, by registry ID (resolved on first use).
+     */
+    private static final AtomicReferenceArray<ECDomainParameters> registryDomains =
+            new AtomicReferenceArray<ECDomainParameters>(curveRegistry.length);
+
     public static
     void write(Output output, ECPrivateKeyParameters key) throws KryoException {
-        byte[] bytes;
-        int length;
+        EccPrivateKeySerializer.serializeDomainParameters(output, key.getParameters(), false);
 
-        ECDomainParameters parameters = key.getParameters();
-        ECCurve curve = parameters.getCurve();
+        /////////////
+        BigIntegerCodec.write(output, key.getD());
+    }
+
+    public static
+    ECPrivateKeyParameters read(Input input) throws KryoException {
+        return read(null, input);
+    }
+
+    private static
+    ECPrivateKeyParameters read(Kryo kryo, Input input) throws KryoException {
+        ECDomainParameters ecDomainParameters = EccPrivateKeySerializer.deserializeDomainParameters(kryo, input);
 
-        EccPrivateKeySerializer.serializeCurve(output, curve);
+        // D
+        /////////////
+        BigInteger D = BigIntegerCodec.read(kryo, input);
+
+        return new ECPrivateKeyParameters(D, ecDomainParameters);
+    }
+
+    /**
+     * Writes the curve, N and G. For the curves in the registry (with the standard N and G), N and G are implied by the
+     * registry ID, so they are not written at all.
+     */
+    static
+    void serializeDomainParameters(Output output, ECDomainParameters parameters, boolean compressedPoints) throws KryoException {
+        if (EccPrivateKeySerializer.serializeCurve(output, parameters)) {
+            return;
+        }
 
         /////////////
         BigInteger n = parameters.getN();
@@ -62,35 +142,28 @@ class EccPrivateKeySerializer extends Serializer<ECPrivateKeyParameters> {
 
 
         /////////////
-        bytes = n.toByteArray();
-        length = bytes.length;
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
+        BigIntegerCodec.write(output, n);
 
 
-        serializeECPoint(g, output);
-
-        /////////////
-        bytes = key.getD()
-                   .toByteArray();
-        length = bytes.length;
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
+        serializeECPoint(g, output, compressedPoints);
     }
 
-    public static
-    ECPrivateKeyParameters read(Input input) throws KryoException {
+    static
+    ECDomainParameters deserializeDomainParameters(Kryo kryo, Input input) throws KryoException {
         byte[] bytes;
         int length;
 
-        ECCurve curve = EccPrivateKeySerializer.deserializeCurve(input);
+        int serializationType = input.readInt(true);
+        if (serializationType == usesExtended && readExtendedType(input) == extendedId) {
+            // N and G are implied by the registry ID
+            return registryDomain(input.readByte() & 0xFF);
+        }
+
+        ECCurve curve = EccPrivateKeySerializer.deserializeCurve(kryo, input, serializationType);
 
         // N
         /////////////
-        length = input.readInt(true);
-        bytes = new byte[length];
-        input.readBytes(bytes, 0, length);
-        BigInteger n = new BigInteger(bytes);
+        BigInteger n = BigIntegerCodec.read(kryo, input);
 
 
         // G
@@ -100,50 +173,78 @@ class EccPrivateKeySerializer extends Serializer<ECPrivateKeyParameters> {
         input.readBytes(bytes, 0, length);
         ECPoint g = curve.decodePoint(bytes);
 
-
-        // D
-        /////////////
-        length = input.readInt(true);
-        bytes = new byte[length];
-        input.readBytes(bytes, 0, length);
-        BigInteger D = new BigInteger(bytes);
-
-
-        ECDomainParameters ecDomainParameters = new ECDomainParameters(curve, g, n);
-
-        return new ECPrivateKeyParameters(D, ecDomainParameters);
+        return new ECDomainParameters(curve, g, n);
     }
 
+    /**
+     * Copies the encoded curve, N and G (as written by {@link #serializeDomainParameters(Output, ECDomainParameters, boolean)})
+     * without decoding them.
+     */
     static
-    void serializeCurve(Output output, ECCurve curve) throws KryoException {
-        byte[] bytes;
-        int length;
-        // save out if it's a NAMED curve, or a UN-NAMED curve. If it is named, we can do less work.
-        String curveName = curve.getClass()
-                                .getSimpleName();
+    void copyDomainParameters(Input input, DecodedKeyCache.Encoded encoded) throws KryoException {
+        int serializationType = encoded.copyInt(input);
+        if (serializationType == usesExtended) {
+            if (checkExtendedType(encoded.copyInt(input)) == extendedId) {
+                // N and G are implied by the registry ID
+                encoded.copyByte(input);
+                return;
+            }
+        }
 
-        if (CustomNamedCurves.getByName(curveName) != null) {
-            // we use the name instead of serializing the full curve
-            output.writeInt(usesName, true);
-            output.writeString(curveName);
-            return;
+        if (serializationType == usesName || serializationType == usesOid) {
+            encoded.copyString(input);
         }
+        else {
+            // the entire curve: a, b, order, cofactor, q and the coordinate system
+            if (serializationType == usesExtended) {
+                encoded.copyBytes(input);
+            }
+            else {
+                // older versions did not write a marker, so this was the length of 'a'
+                encoded.copyBytes(input, serializationType);
+            }
+            encoded.copyBytes(input);
+            encoded.copyBytes(input);
+            encoded.copyBytes(input);
+            encoded.copyBytes(input);
+            encoded.copyInt(input);
+        }
+
+        // N and G
+        encoded.copyBytes(input);
+        encoded.copyBytes(input);
+    }
 
-        else if (curveName.endsWith("Curve")) {
-            String cleanedName = curveName.substring(0, curveName.indexOf("Curve"));
-
-            if (!cleanedName.isEmpty()) {
-                ASN1ObjectIdentifier oid = CustomNamedCurves.getOID(cleanedName);
-                if (oid != null) {
-                    // we use the OID (instead of serializing the entire curve)
-                    output.writeInt(usesOid, true);
-                    curveName = oid.getId();
-                    output.writeString(curveName);
-                    return;
+    /**
+     * @return true if N and G are implied by the written curve (so they must not be written)
+     */
+    private static
+    boolean serializeCurve(Output output, ECDomainParameters parameters) throws KryoException {
+        ECCurve curve = parameters.getCurve();
+
+        // save out if it's a NAMED curve, or a UN-NAMED curve. If it is named, we can do less work.
+        NamedCurve namedCurve = namedCurves.get(curve.getClass());
+        if (namedCurve != NamedCurve.NONE) {
+            if (namedCurve.registryId >= 0) {
+                ECDomainParameters registryDomain = registryDomain(namedCurve.registryId);
+                if (registryDomain.getN().equals(parameters.getN()) && registryDomain.getG().equals(parameters.getG())) {
+                    // we use the registry ID instead of serializing the full curve, N and G
+                    output.writeInt(usesExtended, true);
+                    output.writeInt(extendedId, true);
+                    output.writeByte(namedCurve.registryId);
+                    return true;
                 }
             }
+
+            // we use the name/OID instead of serializing the full curve
+            output.writeInt(namedCurve.serializationType, true);
+            output.writeString(namedCurve.id);
+            return false;
         }
 
+        output.writeInt(usesExtended, true);
+        output.writeInt(extendedCurve, true);
+
         // we have to serialize the ENTIRE curve.
         // save out the curve info
         BigInteger a = curve.getA()
@@ -156,127 +257,227 @@ class EccPrivateKeySerializer extends Serializer<ECPrivateKeyParameters> {
                             .getCharacteristic();
 
         /////////////
-        bytes = a.toByteArray();
-        length = bytes.length;
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
+        BigIntegerCodec.write(output, a);
 
         /////////////
-        bytes = b.toByteArray();
-        length = bytes.length;
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
+        BigIntegerCodec.write(output, b);
 
         /////////////
-        bytes = order.toByteArray();
-        length = bytes.length;
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
+        BigIntegerCodec.write(output, order);
 
 
         /////////////
-        bytes = cofactor.toByteArray();
-        length = bytes.length;
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
+        BigIntegerCodec.write(output, cofactor);
 
 
         /////////////
-        bytes = q.toByteArray();
-        length = bytes.length;
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
+        BigIntegerCodec.write(output, q);
 
 
         // coordinate system
         int coordinateSystem = curve.getCoordinateSystem();
         output.writeInt(coordinateSystem, true);
+        return false;
     }
 
-    static
-    ECCurve deserializeCurve(Input input) throws KryoException {
-        byte[] bytes;
+    private static
+    ECCurve deserializeCurve(Kryo kryo, Input input, int serializationType) throws KryoException {
         int length;
 
         ECCurve curve;
 
-        int serializationType = input.readInt(true);
-
         // lookup via name
         if (serializationType == usesName) {
-            String curveName = input.readString();
-            X9ECParameters x9Curve = CustomNamedCurves.getByName(curveName);
-            curve = x9Curve.getCurve();
+            curve = curveByName(input.readString());
         }
 
         // this means we just lookup the curve via the OID
         else if (serializationType == usesOid) {
-            String oid = input.readString();
-            X9ECParameters x9Curve = CustomNamedCurves.getByOID(new ASN1ObjectIdentifier(oid));
-            curve = x9Curve.getCurve();
+            curve = curveByOid(input.readString());
         }
 
         // we have to read in the entire curve information.
         else {
             /////////////
-            length = input.readInt(true);
-            bytes = new byte[length];
-            input.readBytes(bytes, 0, length);
-            BigInteger a = new BigInteger(bytes);
+            if (serializationType == usesExtended) {
+                // the extended type was already read
+                length = input.readInt(true);
+            }
+            else {
+                // older versions did not write a marker, so this was the length of 'a'
+                length = serializationType;
+            }
+            BigInteger a = BigIntegerCodec.read(kryo, input, length);
 
             /////////////
-            length = input.readInt(true);
-            bytes = new byte[length];
-            input.readBytes(bytes, 0, length);
-            BigInteger b = new BigInteger(bytes);
+            BigInteger b = BigIntegerCodec.read(kryo, input);
 
             /////////////
-            length = input.readInt(true);
-            bytes = new byte[length];
-            input.readBytes(bytes, 0, length);
-            BigInteger order = new BigInteger(bytes);
+            BigInteger order = BigIntegerCodec.read(kryo, input);
 
             /////////////
-            length = input.readInt(true);
-            bytes = new byte[length];
-            input.readBytes(bytes, 0, length);
-            BigInteger cofactor = new BigInteger(bytes);
+            BigInteger cofactor = BigIntegerCodec.read(kryo, input);
 
             /////////////
-            length = input.readInt(true);
-            bytes = new byte[length];
-            input.readBytes(bytes, 0, length);
-            BigInteger q = new BigInteger(bytes);
+            BigInteger q = BigIntegerCodec.read(kryo, input);
 
 
             // coord system
             int coordinateSystem = input.readInt(true);
 
             curve = new ECCurve.Fp(q, a, b, order, cofactor);
-            ecCurveAccess.setInt(curve, ecCoordIndex, coordinateSystem);
+            if (curve.getCoordinateSystem() != coordinateSystem) {
+                // the coordinate system is protected (and ASM cannot set it from its own class loader), so the curve is
+                // re-created with it instead
+                if (!curve.supportsCoordinateSystem(coordinateSystem)) {
+                    throw new KryoException("Unsupported coordinate system: " + coordinateSystem);
+                }
+                curve = curve.configure()
+                             .setCoordinateSystem(coordinateSystem)
+                             .create();
+            }
+        }
+        return curve;
+    }
+
+    private static
+    int readExtendedType(Input input) throws KryoException {
+        return checkExtendedType(input.readInt(true));
+    }
+
+    private static
+    int checkExtendedType(int extendedType) throws KryoException {
+        if (extendedType != extendedCurve && extendedType != extendedId) {
+            throw new KryoException("Unknown curve type: " + extendedType);
+        }
+        return extendedType;
+    }
+
+    private static
+    ECCurve curveByName(String curveName) throws KryoException {
+        String name = Strings.toLowerCase(curveName);
+
+        ECCurve curve = curvesByName.get(name);
+        if (curve == null) {
+            X9ECParameters x9Curve = CustomNamedCurves.getByName(name);
+            if (x9Curve == null) {
+                throw new KryoException("Unknown named curve: " + curveName);
+            }
+            curve = cache(curvesByName, name, x9Curve.getCurve());
+        }
+        return curve;
+    }
+
+    private static
+    ECCurve curveByOid(String oid) throws KryoException {
+        ECCurve curve = curvesByOid.get(oid);
+        if (curve == null) {
+            ASN1ObjectIdentifier identifier;
+            try {
+                identifier = new ASN1ObjectIdentifier(oid);
+            } catch (IllegalArgumentException e) {
+                throw new KryoException("Invalid curve OID: " + oid, e);
+            }
+
+            String name = CustomNamedCurves.getName(identifier);
+            if (name == null) {
+                throw new KryoException("Unknown curve OID: " + oid);
+            }
+            curve = cache(curvesByOid, CustomNamedCurves.getOID(name).getId(), curveByName(name));
+        }
+        return curve;
+    }
+
+    private static
+    ECDomainParameters registryDomain(int registryId) throws KryoException {
+        if (registryId >= curveRegistry.length) {
+            throw new KryoException("Unknown curve registry ID: " + registryId);
+        }
+
+        ECDomainParameters domain = registryDomains.get(registryId);
+        if (domain == null) {
+            X9ECParameters x9Curve = CustomNamedCurves.getByName(curveRegistry[registryId]);
+            if (x9Curve == null) {
+                throw new KryoException("Unknown named curve: " + curveRegistry[registryId]);
+            }
+            domain = new ECDomainParameters(x9Curve.getCurve(), x9Curve.getG(), x9Curve.getN(), x9Curve.getH(), x9Curve.getSeed());
+            if (!registryDomains.compareAndSet(registryId, null, domain)) {
+                domain = registryDomains.get(registryId);
+            }
+        }
+        return domain;
+    }
+
+    private static
+    ECCurve cache(ConcurrentHashMap<String, ECCurve> curves, String key, ECCurve curve) {
+        ECCurve previous = curves.putIfAbsent(key, curve);
+        if (previous != null) {
+            return previous;
         }
         return curve;
     }
 
     static
-    void serializeECPoint(ECPoint point, Output output) throws KryoException {
-        if (point.isInfinity()) {
-            return;
+    void serializeECPoint(ECPoint point, Output output, boolean compressed) throws KryoException {
+        // normalizes the point, and encodes it as 0x04||X||Y (or 0x02/0x03||X when compressed, or 0x00 for infinity)
+        byte[] bytes = point.getEncoded(compressed);
+
+        output.writeInt(bytes.length, true);
+        output.writeBytes(bytes);
+    }
+
+    /**
+     * How a named curve is written (by name, or by OID), and its registry ID (if it is in the registry).
+     */
+    private static final
+    class NamedCurve {
+        /**
+         * The curve is not named, so the entire curve has to be written.
+         */
+        static final NamedCurve NONE = new NamedCurve(usesExtended, null, -1);
+
+        final byte serializationType;
+        final String id;
+        final int registryId;
+
+        private
+        NamedCurve(final byte serializationType, final String id, final int registryId) {
+            this.serializationType = serializationType;
+            this.id = id;
+            this.registryId = registryId;
         }
 
-        ECPoint normed = point.normalize();
+        static
+        NamedCurve forClass(final Class<?> curveClass) {
+            String curveName = curveClass.getSimpleName();
 
-        byte[] X = normed.getXCoord()
-                         .getEncoded();
-        byte[] Y = normed.getYCoord()
-                         .getEncoded();
+            if (CustomNamedCurves.getByName(curveName) != null) {
+                return named(usesName, curveName, Strings.toLowerCase(curveName));
+            }
 
-        int length = 1 + X.length + Y.length;
-        output.writeInt(length, true);
+            if (curveName.endsWith("Curve")) {
+                String cleanedName = curveName.substring(0, curveName.indexOf("Curve"));
 
-        output.write(0x04);
-        output.write(X);
-        output.write(Y);
+                if (!cleanedName.isEmpty()) {
+                    ASN1ObjectIdentifier oid = CustomNamedCurves.getOID(cleanedName);
+                    if (oid != null) {
+                        return named(usesOid, oid.getId(), CustomNamedCurves.getName(oid));
+                    }
+                }
+            }
+
+            return NONE;
+        }
+
+        private static
+        NamedCurve named(final byte serializationType, final String id, final String canonicalName) {
+            for (int i = 0; i < curveRegistry.length; i++) {
+                if (curveRegistry[i].equals(canonicalName)) {
+                    return new NamedCurve(serializationType, id, i);
+                }
+            }
+            return new NamedCurve(serializationType, id, -1);
+        }
     }
 
     @Override
@@ -289,6 +490,6 @@ class EccPrivateKeySerializer extends Serializer<ECPrivateKeyParameters> {
     @Override
     public
     ECPrivateKeyParameters read(Kryo kryo, Input input, Class type) throws KryoException {
-        return read(input);
+        return read(kryo, input);
     }
 }
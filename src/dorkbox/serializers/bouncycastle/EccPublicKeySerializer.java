@@ -15,11 +15,8 @@
  */
 package dorkbox.serializers.bouncycastle;
 
-import java.math.BigInteger;
-
 import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
-import org.bouncycastle.math.ec.ECCurve;
 import org.bouncycastle.math.ec.ECPoint;
 
 import com.esotericsoftware.kryo.Kryo;
@@ -34,64 +31,81 @@ import com.esotericsoftware.kryo.io.Output;
 public
 class EccPublicKeySerializer extends Serializer<ECPublicKeyParameters> {
 
-    public static
-    void write(Output output, ECPublicKeyParameters key) throws KryoException {
-        byte[] bytes;
-        int length;
+    private boolean compressedPoints = false;
 
-        ECDomainParameters parameters = key.getParameters();
-        ECCurve curve = parameters.getCurve();
+    private int decodedKeyCacheSize = 0;
+    private DecodedKeyCache<ECPublicKeyParameters> decodedKeys;
 
-        EccPrivateKeySerializer.serializeCurve(output, curve);
+    /**
+     * Writes the points (Q, and G if the curve is not in the curve registry) in compressed form, which is about half the size.
+     * Both forms are always readable, so this only changes what is written. Decompressing a point on read costs a square
+     * root in the field of the curve.
+     */
+    public
+    void setCompressedPoints(final boolean compressedPoints) {
+        this.compressedPoints = compressedPoints;
+    }
 
-        /////////////
-        BigInteger n = parameters.getN();
-        ECPoint g = parameters.getG();
+    public
+    boolean isCompressedPoints() {
+        return compressedPoints;
+    }
 
+    /**
+     * Keeps up to the specified number of decoded keys, so that when the same key is read again (by its encoded bytes), the
+     * previously decoded key is returned instead of decoding (and validating) the points again. 0 disables the cache (the
+     * default).
+     */
+    public
+    void setDecodedKeyCacheSize(final int decodedKeyCacheSize) {
+        if (decodedKeyCacheSize < 0) {
+            throw new IllegalArgumentException("decodedKeyCacheSize cannot be negative: " + decodedKeyCacheSize);
+        }
+
+        this.decodedKeyCacheSize = decodedKeyCacheSize;
+        if (decodedKeyCacheSize == 0) {
+            decodedKeys = null;
+        }
+        else {
+            decodedKeys = new DecodedKeyCache<ECPublicKeyParameters>(decodedKeyCacheSize);
+        }
+    }
 
-        /////////////
-        bytes = n.toByteArray();
-        length = bytes.length;
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
+    public
+    int getDecodedKeyCacheSize() {
+        return decodedKeyCacheSize;
+    }
 
+    public static
+    void write(Output output, ECPublicKeyParameters key) throws KryoException {
+        write(output, key, false);
+    }
 
-        EccPrivateKeySerializer.serializeECPoint(g, output);
-        EccPrivateKeySerializer.serializeECPoint(key.getQ(), output);
+    public static
+    void write(Output output, ECPublicKeyParameters key, boolean compressedPoints) throws KryoException {
+        EccPrivateKeySerializer.serializeDomainParameters(output, key.getParameters(), compressedPoints);
+        EccPrivateKeySerializer.serializeECPoint(key.getQ(), output, compressedPoints);
     }
 
     public static
     ECPublicKeyParameters read(Input input) throws KryoException {
+        return read(null, input);
+    }
+
+    private static
+    ECPublicKeyParameters read(Kryo kryo, Input input) throws KryoException {
         byte[] bytes;
         int length;
 
-        ECCurve curve = EccPrivateKeySerializer.deserializeCurve(input);
-
-
-        // N
-        /////////////
-        length = input.readInt(true);
-        bytes = new byte[length];
-        input.readBytes(bytes, 0, length);
-        BigInteger n = new BigInteger(bytes);
-
-
-        // G
-        /////////////
-        length = input.readInt(true);
-        bytes = new byte[length];
-        input.readBytes(bytes, 0, length);
-        ECPoint g = curve.decodePoint(bytes);
-
-
-        ECDomainParameters ecDomainParameters = new ECDomainParameters(curve, g, n);
+        ECDomainParameters ecDomainParameters = EccPrivateKeySerializer.deserializeDomainParameters(kryo, input);
 
         // Q
         /////////////
         length = input.readInt(true);
         bytes = new byte[length];
         input.readBytes(bytes, 0, length);
-        ECPoint Q = curve.decodePoint(bytes);
+        ECPoint Q = ecDomainParameters.getCurve()
+                                      .decodePoint(bytes);
 
         return new ECPublicKeyParameters(Q, ecDomainParameters);
     }
@@ -99,13 +113,27 @@ class EccPublicKeySerializer extends Serializer<ECPublicKeyParameters> {
     @Override
     public
     void write(Kryo kryo, Output output, ECPublicKeyParameters key) throws KryoException {
-        write(output, key);
+        write(output, key, compressedPoints);
     }
 
     @SuppressWarnings("rawtypes")
     @Override
     public
     ECPublicKeyParameters read(Kryo kryo, Input input, Class type) throws KryoException {
-        return read(input);
+        DecodedKeyCache<ECPublicKeyParameters> decodedKeys = this.decodedKeys;
+        if (decodedKeys == null) {
+            return read(kryo, input);
+        }
+
+        DecodedKeyCache.Encoded encoded = DecodedKeyCache.encoded(kryo);
+        EccPrivateKeySerializer.copyDomainParameters(input, encoded);
+        encoded.copyBytes(input); // Q
+
+        ECPublicKeyParameters key = decodedKeys.get(encoded);
+        if (key == null) {
+            key = read(kryo, encoded.decoder());
+            decodedKeys.put(encoded, key);
+        }
+        return key;
     }
 }
@@ -33,134 +33,28 @@ class RsaPrivateKeySerializer extends Serializer<RSAPrivateCrtKeyParameters> {
     @Override
     public
     void write(Kryo kryo, Output output, RSAPrivateCrtKeyParameters key) {
-        byte[] bytes;
-        int length;
-
-        /////////////
-        bytes = key.getDP()
-                   .toByteArray();
-        length = bytes.length;
-
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
-
-        /////////////
-        bytes = key.getDQ()
-                   .toByteArray();
-        length = bytes.length;
-
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
-
-
-        /////////////
-        bytes = key.getExponent()
-                   .toByteArray();
-        length = bytes.length;
-
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
-
-
-        /////////////
-        bytes = key.getModulus()
-                   .toByteArray();
-        length = bytes.length;
-
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
-
-
-        /////////////
-        bytes = key.getP()
-                   .toByteArray();
-        length = bytes.length;
-
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
-
-
-        /////////////
-        bytes = key.getPublicExponent()
-                   .toByteArray();
-        length = bytes.length;
-
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
-
-
-        /////////////
-        bytes = key.getQ()
-                   .toByteArray();
-        length = bytes.length;
-
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
-
-
-        /////////////
-        bytes = key.getQInv()
-                   .toByteArray();
-        length = bytes.length;
-
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
+        BigIntegerCodec.write(output, key.getDP());
+        BigIntegerCodec.write(output, key.getDQ());
+        BigIntegerCodec.write(output, key.getExponent());
+        BigIntegerCodec.write(output, key.getModulus());
+        BigIntegerCodec.write(output, key.getP());
+        BigIntegerCodec.write(output, key.getPublicExponent());
+        BigIntegerCodec.write(output, key.getQ());
+        BigIntegerCodec.write(output, key.getQInv());
     }
 
     @SuppressWarnings("rawtypes")
     @Override
     public
     RSAPrivateCrtKeyParameters read(Kryo kryo, Input input, Class type) {
-        byte[] bytes;
-        int length;
-
-        /////////////
-        length = input.readInt(true);
-        bytes = new byte[length];
-        input.readBytes(bytes, 0, length);
-        BigInteger DP = new BigInteger(bytes);
-
-        /////////////
-        length = input.readInt(true);
-        bytes = new byte[length];
-        input.readBytes(bytes, 0, length);
-        BigInteger DQ = new BigInteger(bytes);
-
-        /////////////
-        length = input.readInt(true);
-        bytes = new byte[length];
-        input.readBytes(bytes, 0, length);
-        BigInteger exponent = new BigInteger(bytes);
-
-        /////////////
-        length = input.readInt(true);
-        bytes = new byte[length];
-        input.readBytes(bytes, 0, length);
-        BigInteger modulus = new BigInteger(bytes);
-
-        /////////////
-        length = input.readInt(true);
-        bytes = new byte[length];
-        input.readBytes(bytes, 0, length);
-        BigInteger P = new BigInteger(bytes);
-
-        /////////////
-        length = input.readInt(true);
-        bytes = new byte[length];
-        input.readBytes(bytes, 0, length);
-        BigInteger publicExponent = new BigInteger(bytes);
-
-        /////////////
-        length = input.readInt(true);
-        bytes = new byte[length];
-        input.readBytes(bytes, 0, length);
-        BigInteger q = new BigInteger(bytes);
-
-        /////////////
-        length = input.readInt(true);
-        bytes = new byte[length];
-        input.readBytes(bytes, 0, length);
-        BigInteger qInv = new BigInteger(bytes);
+        BigInteger DP = BigIntegerCodec.read(kryo, input);
+        BigInteger DQ = BigIntegerCodec.read(kryo, input);
+        BigInteger exponent = BigIntegerCodec.read(kryo, input);
+        BigInteger modulus = BigIntegerCodec.read(kryo, input);
+        BigInteger P = BigIntegerCodec.read(kryo, input);
+        BigInteger publicExponent = BigIntegerCodec.read(kryo, input);
+        BigInteger q = BigIntegerCodec.read(kryo, input);
+        BigInteger qInv = BigIntegerCodec.read(kryo, input);
 
         return new RSAPrivateCrtKeyParameters(modulus, publicExponent, exponent, P, q, DP, DQ, qInv);
     }
@@ -30,47 +30,65 @@ import com.esotericsoftware.kryo.io.Output;
 public
 class RsaPublicKeySerializer extends Serializer<RSAKeyParameters> {
 
-    @Override
-    public
-    void write(Kryo kryo, Output output, RSAKeyParameters key) {
-        byte[] bytes;
-        int length;
+    private int decodedKeyCacheSize = 0;
+    private DecodedKeyCache<RSAKeyParameters> decodedKeys;
 
-        ///////////
-        bytes = key.getModulus()
-                   .toByteArray();
-        length = bytes.length;
+    /**
+     * Keeps up to the specified number of decoded keys, so that when the same key is read again (by its encoded bytes), the
+     * previously decoded key is returned instead of decoding it again. 0 disables the cache (the default).
+     */
+    public
+    void setDecodedKeyCacheSize(final int decodedKeyCacheSize) {
+        if (decodedKeyCacheSize < 0) {
+            throw new IllegalArgumentException("decodedKeyCacheSize cannot be negative: " + decodedKeyCacheSize);
+        }
 
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
+        this.decodedKeyCacheSize = decodedKeyCacheSize;
+        if (decodedKeyCacheSize == 0) {
+            decodedKeys = null;
+        }
+        else {
+            decodedKeys = new DecodedKeyCache<RSAKeyParameters>(decodedKeyCacheSize);
+        }
+    }
 
-        /////////////
-        bytes = key.getExponent()
-                   .toByteArray();
-        length = bytes.length;
+    public
+    int getDecodedKeyCacheSize() {
+        return decodedKeyCacheSize;
+    }
 
-        output.writeInt(length, true);
-        output.writeBytes(bytes, 0, length);
+    @Override
+    public
+    void write(Kryo kryo, Output output, RSAKeyParameters key) {
+        BigIntegerCodec.write(output, key.getModulus());
+        BigIntegerCodec.write(output, key.getExponent());
     }
 
     @SuppressWarnings("rawtypes")
     @Override
     public
     RSAKeyParameters read(Kryo kryo, Input input, Class type) {
-        byte[] bytes;
-        int length;
+        DecodedKeyCache<RSAKeyParameters> decodedKeys = this.decodedKeys;
+        if (decodedKeys == null) {
+            return read(kryo, input);
+        }
+
+        DecodedKeyCache.Encoded encoded = DecodedKeyCache.encoded(kryo);
+        encoded.copyBytes(input); // modulus
+        encoded.copyBytes(input); // exponent
 
-        /////////////
-        length = input.readInt(true);
-        bytes = new byte[length];
-        input.readBytes(bytes, 0, length);
-        BigInteger modulus = new BigInteger(bytes);
+        RSAKeyParameters key = decodedKeys.get(encoded);
+        if (key == null) {
+            key = read(kryo, encoded.decoder());
+            decodedKeys.put(encoded, key);
+        }
+        return key;
+    }
 
-        /////////////
-        length = input.readInt(true);
-        bytes = new byte[length];
-        input.readBytes(bytes, 0, length);
-        BigInteger exponent = new BigInteger(bytes);
+    private static
+    RSAKeyParameters read(Kryo kryo, Input input) {
+        BigInteger modulus = BigIntegerCodec.read(kryo, input);
+        BigInteger exponent = BigIntegerCodec.read(kryo, input);
 
         return new RSAKeyParameters(false, modulus, exponent);
     }
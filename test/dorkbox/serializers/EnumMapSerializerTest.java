@@ -29,6 +29,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
 
 /**
  * A test case for the {@link EnumMapSerializer}.
@@ -68,6 +69,19 @@ class EnumMapSerializerTest {
         copy.put(Colors.BROWN, new HashSet<String>());
     }
 
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Test(expected = ClassCastException.class)
+    public
+    void testSerializeEmpty() throws Exception {
+        _kryo.register(Vipers.class);
+
+        final EnumMap deserialized = KryoTest.Companion.deserialize(_kryo, KryoTest.Companion.serialize(_kryo, _original), _original.getClass());
+        assertEquals(_original, deserialized);
+
+        // The key type of the deserialized map must be initialized correctly - it should throw the expected ClassCastException.
+        deserialized.put(Colors.BROWN, new HashSet<String>());
+    }
+
     @Test
     public
     void testDeepCopy() throws Exception {
@@ -84,4 +98,94 @@ class EnumMapSerializerTest {
         assertNotSame(_original.get(Vipers.BLACK_MAMBA), copy.get(Vipers.BLACK_MAMBA));
         assertEquals(_original, copy);
     }
+
+    @Test
+    public
+    void testCompactDense() throws Exception {
+        _kryo.register(Vipers.class);
+
+        final EnumMap<Vipers, String> map = new EnumMap<Vipers, String>(Vipers.class);
+        for (Vipers viper : Vipers.values()) {
+            if (viper != Vipers.COTTONMOUTH) {
+                map.put(viper, viper.name());
+            }
+        }
+
+        final EnumMapSerializer compact = new EnumMapSerializer();
+        compact.setCompact(true);
+
+        final int ordinalSize = serialize(map).length;
+        _kryo.register(EnumMap.class, compact);
+
+        final byte[] bytes = serialize(map);
+        assertEquals(map, KryoTest.Companion.deserialize(_kryo, bytes, map.getClass()));
+
+        // the format byte follows the key type and the size, 5 of 6 constants are written as a bitmap
+        final Output header = new Output(32);
+        _kryo.writeClass(header, Vipers.class);
+        header.writeInt(map.size(), true);
+        assertEquals(1, bytes[header.position()]);
+
+        assertTrue(bytes.length < ordinalSize);
+    }
+
+    @Test
+    public
+    void testCompactSparse() throws Exception {
+        _kryo.register(Vipers.class);
+
+        final EnumMap<Vipers, String> map = new EnumMap<Vipers, String>(Vipers.class);
+        map.put(Vipers.SIDEWINDER, "foo");
+
+        final EnumMapSerializer compact = new EnumMapSerializer();
+        compact.setCompact(true);
+        _kryo.register(EnumMap.class, compact);
+
+        assertEquals(map, KryoTest.Companion.deserialize(_kryo, KryoTest.Companion.serialize(_kryo, map), map.getClass()));
+    }
+
+    @Test
+    public
+    void testHomogeneousValues() throws Exception {
+        _kryo.register(Vipers.class);
+
+        final EnumMap<Vipers, Long> map = new EnumMap<Vipers, Long>(Vipers.class);
+        map.put(Vipers.BLACK_MAMBA, 1L);
+        map.put(Vipers.COPPERHEAD, Long.MAX_VALUE);
+        map.put(Vipers.SIDEWINDER, -1L);
+
+        final EnumMapSerializer homogeneous = new EnumMapSerializer();
+        homogeneous.setHomogeneousValues(true);
+
+        final int mixedSize = serialize(map).length;
+        _kryo.register(EnumMap.class, homogeneous);
+
+        assertEquals(map, KryoTest.Companion.deserialize(_kryo, KryoTest.Companion.serialize(_kryo, map), map.getClass()));
+        assertTrue(serialize(map).length < mixedSize);
+    }
+
+    @Test
+    public
+    void testHomogeneousValuesFallback() throws Exception {
+        _kryo.register(Vipers.class);
+
+        final EnumMap<Vipers, Object> map = new EnumMap<Vipers, Object>(Vipers.class);
+        map.put(Vipers.BLACK_MAMBA, 1L);
+        map.put(Vipers.COPPERHEAD, "foo");
+        map.put(Vipers.SIDEWINDER, null);
+
+        final EnumMapSerializer homogeneous = new EnumMapSerializer();
+        homogeneous.setHomogeneousValues(true);
+        homogeneous.setCompact(true);
+        _kryo.register(EnumMap.class, homogeneous);
+
+        assertEquals(map, KryoTest.Companion.deserialize(_kryo, KryoTest.Companion.serialize(_kryo, map), map.getClass()));
+    }
+
+    private
+    byte[] serialize(final Object object) {
+        final Output output = new Output(4096);
+        _kryo.writeObject(output, object);
+        return output.toBytes();
+    }
 }
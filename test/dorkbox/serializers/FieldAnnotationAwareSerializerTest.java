@@ -27,7 +27,14 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
@@ -67,7 +74,7 @@ public class FieldAnnotationAwareSerializerTest {
 
         final Kryo kryo = new Kryo();
         @SuppressWarnings("unchecked")
-		final SerializerFactory disregardingSerializerFactory = new FieldAnnotationAwareSerializer.Factory(
+		final SerializerFactory<FieldAnnotationAwareSerializer<Object>> disregardingSerializerFactory = new FieldAnnotationAwareSerializer.Factory(
                 Arrays.<Class<? extends Annotation>>asList(CustomMark.class), true);
         kryo.addDefaultSerializer(CustomBean.class, disregardingSerializerFactory);
         kryo.register(CustomBean.class);
@@ -92,7 +99,7 @@ public class FieldAnnotationAwareSerializerTest {
 
         final Kryo kryo = new Kryo();
         @SuppressWarnings("unchecked")
-		final SerializerFactory regardingSerializerFactory = new FieldAnnotationAwareSerializer.Factory(
+		final SerializerFactory<FieldAnnotationAwareSerializer<Object>> regardingSerializerFactory = new FieldAnnotationAwareSerializer.Factory(
                 Arrays.<Class<? extends Annotation>>asList(CustomMark.class), false);
         kryo.addDefaultSerializer(CustomBean.class, regardingSerializerFactory);
         kryo.register(CustomBean.class);
@@ -112,6 +119,150 @@ public class FieldAnnotationAwareSerializerTest {
         assertNull(inputBean.getSecondValue());
     }
 
+    @Test
+    public void testUpdateAnnotations() throws Exception {
+        final Kryo kryo = new Kryo();
+        final FieldAnnotationAwareSerializer<CustomBean> serializer = new FieldAnnotationAwareSerializer<CustomBean>(
+                kryo, CustomBean.class, Collections.<Class<? extends Annotation>>emptySet(), true);
+        kryo.register(CustomBean.class, serializer);
+        assertEquals(2, serializer.getFields().length);
+
+        // only the affected field is removed
+        assertTrue(serializer.updateAnnotations(Arrays.<Class<? extends Annotation>>asList(CustomMark.class),
+                                                Collections.<Class<? extends Annotation>>emptySet()));
+        assertEquals(1, serializer.getFields().length);
+        assertFalse(serializer.addAnnotation(CustomMark.class));
+        assertFalse(serializer.removeAnnotation(CustomMark.class));
+
+        final byte[] buffer = makeBuffer();
+        final CustomBean outputBean = makeBean();
+        kryo.writeObject(new Output(buffer), outputBean);
+
+        final CustomBean inputBean = kryo.readObject(new Input(buffer), CustomBean.class);
+        assertNull(inputBean.getFirstValue());
+        assertEquals(outputBean.getSecondValue(), inputBean.getSecondValue());
+    }
+
+    @Test
+    public void testSharedFactoryAcrossThreads() throws Exception {
+        final SerializerFactory<FieldAnnotationAwareSerializer<Object>> factory = new FieldAnnotationAwareSerializer.Factory(
+                Arrays.<Class<? extends Annotation>>asList(CustomMark.class), true);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<PrimitiveBean>> results = new ArrayList<Future<PrimitiveBean>>();
+            for (int i = 0; i < 8; i++) {
+                final int value = i;
+                results.add(executor.submit(new Callable<PrimitiveBean>() {
+                    @Override
+                    public PrimitiveBean call() {
+                        // one kryo instance per thread, sharing the factory
+                        final Kryo kryo = new Kryo();
+                        kryo.addDefaultSerializer(PrimitiveBean.class, factory);
+                        kryo.register(PrimitiveBean.class);
+
+                        final PrimitiveBean bean = new PrimitiveBean();
+                        bean.intValue = value;
+                        bean.ignored = value;
+
+                        final byte[] buffer = makeBuffer();
+                        kryo.writeObject(new Output(buffer), bean);
+                        return kryo.readObject(new Input(buffer), PrimitiveBean.class);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                final PrimitiveBean bean = results.get(i).get();
+                assertEquals(i, bean.intValue);
+                assertEquals(0, bean.ignored);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testGroupedLayout() throws Exception {
+        final Kryo kryo = new Kryo();
+        kryo.addDefaultSerializer(GroupedBean.class, new FieldAnnotationAwareSerializer.Factory(
+                Arrays.<Class<? extends Annotation>>asList(CustomMark.class), true));
+        kryo.register(GroupedBean.class);
+
+        final GroupedBean outputBean = new GroupedBean();
+        outputBean.first = FIRST_VALUE;
+        outputBean.second = 42;
+        outputBean.third = SECOND_VALUE;
+        outputBean.fourth = Long.MAX_VALUE;
+
+        final byte[] buffer = makeBuffer();
+        kryo.writeObject(new Output(buffer), outputBean);
+
+        // the primitive fields are written first (alphabetically, so "fourth" before "second"), the fixed width field with 8 bytes
+        final Input input = new Input(buffer);
+        assertEquals(Long.MAX_VALUE, input.readLong());
+        assertEquals(42, input.readVarInt(false));
+
+        final GroupedBean inputBean = kryo.readObject(new Input(buffer), GroupedBean.class);
+        assertEquals(outputBean.first, inputBean.first);
+        assertEquals(outputBean.second, inputBean.second);
+        assertEquals(outputBean.third, inputBean.third);
+        assertEquals(outputBean.fourth, inputBean.fourth);
+    }
+
+    /**
+     * The grouped layout is cached, but the configuration of a cached field that is changed afterwards must still apply.
+     */
+    @Test
+    public void testGroupedLayoutFieldConfiguration() throws Exception {
+        final Kryo kryo = new Kryo();
+        kryo.addDefaultSerializer(GroupedBean.class, new FieldAnnotationAwareSerializer.Factory(
+                Arrays.<Class<? extends Annotation>>asList(CustomMark.class), true));
+        kryo.register(GroupedBean.class);
+
+        final GroupedBean outputBean = new GroupedBean();
+        outputBean.second = 42;
+        kryo.writeObject(new Output(makeBuffer()), outputBean);
+
+        @SuppressWarnings("unchecked")
+        final FieldAnnotationAwareSerializer<GroupedBean> serializer =
+                (FieldAnnotationAwareSerializer<GroupedBean>) kryo.getSerializer(GroupedBean.class);
+        serializer.getField("second").setVariableLengthEncoding(false);
+
+        final byte[] buffer = makeBuffer();
+        kryo.writeObject(new Output(buffer), outputBean);
+
+        final Input input = new Input(buffer);
+        assertEquals(0L, input.readLong());
+        assertEquals(42, input.readInt());
+
+        assertEquals(outputBean.second, kryo.readObject(new Input(buffer), GroupedBean.class).second);
+    }
+
+    @FieldAnnotationAwareSerializer.GroupedLayout
+    private static class GroupedBean {
+        private String first;
+        private int second;
+        private String third;
+        @FieldAnnotationAwareSerializer.FixedWidth
+        private long fourth;
+    }
+
+    private static class PrimitiveBean {
+        private int intValue;
+        private long longValue;
+        private float floatValue;
+        private double doubleValue;
+        private boolean booleanValue;
+        private byte byteValue;
+        private char charValue;
+        private short shortValue;
+        private String name;
+
+        @CustomMark
+        private int ignored;
+    }
+
     private static class CustomBean {
 
         @CustomMark
@@ -159,7 +159,7 @@ class KryoTest {
         assertDeepEquals(deserialized, map)
     }
 
-    @Test(expected = KryoException::class)
+    @Test
     @Throws(Exception::class)
     fun testEmptyEnumMap() {
         val map = EnumMap<Gender, String>(Gender::class.java)
@@ -472,6 +472,31 @@ class KryoTest {
         assertDeepEquals(copy, synchronizedCollection)
     }
 
+    @Test
+    @Throws(Exception::class)
+    fun testWarmUpCollectionsSerializers() {
+        UnmodifiableCollectionsSerializer.warmUp()
+        SynchronizedCollectionsSerializer.warmUp()
+
+        val holder = TestClasses.Holder(arrayOf(unmodifiableCollections(), synchronizedCollections()))
+        val deserialized = deserialize(serialize(holder), TestClasses.Holder::class.java)
+        assertDeepEquals(deserialized, holder)
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun testDedicatedCollectionsSerializers() {
+        UnmodifiableCollectionsSerializer.registerDedicatedSerializers(_kryo)
+        SynchronizedCollectionsSerializer.registerDedicatedSerializers(_kryo)
+
+        val holder = TestClasses.Holder(arrayOf(unmodifiableCollections(), synchronizedCollections()))
+        val deserialized = deserialize(serialize(holder), TestClasses.Holder::class.java)
+        assertDeepEquals(deserialized, holder)
+
+        val copy = _kryo.copy(holder)
+        assertDeepEquals(copy, holder)
+    }
+
     @Test
     @Throws(Exception::class)
     fun testJavaUtilCollectionsEmptyList() {
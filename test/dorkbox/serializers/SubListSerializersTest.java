@@ -16,7 +16,10 @@
 package dorkbox.serializers;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
@@ -27,6 +30,8 @@ import org.junit.Test;
 import org.objenesis.strategy.StdInstantiatorStrategy;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.util.DefaultInstantiatorStrategy;
 
 /**
@@ -166,12 +171,242 @@ public class SubListSerializersTest {
         assertEquals( deserialized, lists );
     }
     
+    @Test
+    @SuppressWarnings( "unchecked" )
+    public void testSharedSubList () throws Exception {
+        final Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setReferences(true);
+        SubListSerializers.addDefaultSerializers(kryo);
+
+        final List<Integer> parent = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            parent.add(i);
+        }
+        final List<Integer> subList = parent.subList(10, 20);
+        final List<List<Integer>> once = new ArrayList<List<Integer>>(Arrays.asList(subList));
+        final List<List<Integer>> shared = new ArrayList<List<Integer>>(Arrays.asList(subList, subList, subList));
+
+        // the sublist is only written once, the other occurrences are references
+        final Output output = new Output(8192);
+        kryo.writeObject(output, once);
+        final int onceSize = output.position();
+        output.reset();
+        kryo.writeObject(output, shared);
+        assertTrue( output.position() < onceSize + 10 );
+
+        final List<List<Integer>> deserialized = KryoTest.Companion.deserialize( kryo, KryoTest.Companion.serialize( kryo, shared ), shared.getClass() );
+        assertEquals( shared, deserialized );
+        assertSame( deserialized.get(0), deserialized.get(1) );
+        assertSame( deserialized.get(0), deserialized.get(2) );
+
+        final List<List<Integer>> copy = kryo.copy( shared );
+        assertEquals( shared, copy );
+        assertSame( copy.get(0), copy.get(1) );
+        assertSame( copy.get(0), copy.get(2) );
+    }
+
+    @Test
+    public void testNestedSubListsAreFlattened () throws Exception {
+        final List<Integer> parent = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            parent.add(i);
+        }
+
+        List<Integer> nested = parent;
+        for (int i = 0; i < 8; i++) {
+            nested = nested.subList(1, nested.size() - 1);
+        }
+        final List<Integer> direct = parent.subList(8, 92);
+
+        // a chain of sublists is written as the root list plus the absolute offsets
+        final Output output = new Output(8192);
+        _kryo.writeObject(output, nested);
+        final int nestedSize = output.position();
+        output.reset();
+        _kryo.writeObject(output, direct);
+        assertEquals( output.position(), nestedSize );
+
+        @SuppressWarnings( "unchecked" )
+        final List<Integer> deserialized = KryoTest.Companion.deserialize( _kryo, KryoTest.Companion.serialize( _kryo, nested ), nested.getClass() );
+        assertEquals( nested, deserialized );
+        assertEquals( nested, _kryo.copy( nested ) );
+    }
+
+    @Test
+    public void testNestedSubListIsWrittenAsRootAndSummedOffset () throws Exception {
+        final List<Integer> elements = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            elements.add(i);
+        }
+
+        // ArrayList$SubList, AbstractList$SubList and AbstractList$RandomAccessSubList
+        final List<List<Integer>> roots = new ArrayList<List<Integer>>();
+        roots.add(new ArrayList<Integer>(elements));
+        roots.add(new LinkedList<Integer>(elements));
+        roots.add(Arrays.asList(elements.toArray(new Integer[0])));
+
+        for (final List<Integer> root : roots) {
+            List<Integer> nested = root.subList(3, 97);
+            nested = nested.subList(2, 90);
+            nested = nested.subList(5, 50);
+
+            final Output output = new Output(8192);
+            _kryo.writeObject(output, nested);
+
+            // a single reference to the root list (not to any of the intermediate sublists), and the summed offsets
+            final Input input = new Input(output.toBytes());
+            final Object parent = _kryo.readClassAndObject(input);
+            assertSame( root.getClass(), parent.getClass() );
+            assertEquals( root, parent );
+            assertEquals( 3 + 2 + 5, input.readInt(true) );
+            assertEquals( 3 + 2 + 5 + 45, input.readInt(true) );
+            assertEquals( input.limit(), input.position() );
+
+            assertEquals( nested, _kryo.readObject(new Input(output.toBytes()), nested.getClass()) );
+        }
+    }
+
+    /**
+     * Since java 9 the sublists of the jdk reference the root list directly, so an actual chain of sublists (as in java 8 and
+     * <code>java.util.SubList</code>) is only created by a sublist that references its parent sublist.
+     */
+    @Test
+    public void testSubListChainIsCollapsed () throws Exception {
+        final List<Integer> root = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            root.add(i);
+        }
+
+        ChainedSubList nested = new ChainedSubList(root, 3, 97);
+        nested = new ChainedSubList(nested, 2, 90);
+        nested = new ChainedSubList(nested, 5, 50);
+        assertSame( ChainedSubList.class, nested.parent.getClass() );
+
+        final SubListSerializers.SubListAccessor accessor =
+                new SubListSerializers.SubListAccessor(ChainedSubList.class.getDeclaredField("parent"),
+                                                       ChainedSubList.class.getDeclaredField("offset"),
+                                                       ChainedSubList.class.getDeclaredField("size"));
+
+        assertSame( root, accessor.root(nested) );
+        assertEquals( 3 + 2 + 5, accessor.rootOffset(nested) );
+        assertEquals( 45, accessor.size(nested) );
+        assertEquals( root.subList(10, 55), nested );
+    }
+
+    @Test
+    public void testWindowOnly () throws Exception {
+        final Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        SubListSerializers.addDefaultSerializers(kryo, true, false);
+
+        final List<Integer> parent = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            parent.add(i);
+        }
+        final List<Integer> subList = parent.subList(500, 510);
+
+        final Output output = new Output(8192);
+        kryo.writeObject(output, subList);
+        final int windowOnlySize = output.position();
+        output.reset();
+        _kryo.writeObject(output, subList);
+        assertTrue( windowOnlySize * 10 < output.position() );
+
+        final byte[] serialized = KryoTest.Companion.serialize( kryo, subList );
+        @SuppressWarnings( "unchecked" )
+        final List<Integer> deserialized = KryoTest.Companion.deserialize( kryo, serialized, subList.getClass() );
+        assertEquals( subList, deserialized );
+
+        final List<Integer> linkedSubList = new LinkedList<Integer>( parent ).subList( 500, 510 );
+        @SuppressWarnings( "unchecked" )
+        final List<Integer> linkedDeserialized = KryoTest.Companion.deserialize( kryo, KryoTest.Companion.serialize( kryo, linkedSubList ), linkedSubList.getClass() );
+        assertEquals( linkedSubList, linkedDeserialized );
+    }
+
+    @Test
+    @SuppressWarnings( "unchecked" )
+    public void testWindowOnlySharedParent () throws Exception {
+        final Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        kryo.setReferences(true);
+        SubListSerializers.addDefaultSerializers(kryo, true, true);
+
+        final List<String> parent = arrayList("1", "2", "3", "4");
+        final List<Object> lists = new ArrayList<Object>(Arrays.asList(parent, parent.subList(1, 3)));
+
+        final List<Object> deserialized = KryoTest.Companion.deserialize( kryo, KryoTest.Companion.serialize( kryo, lists ), lists.getClass() );
+        assertEquals( lists, deserialized );
+
+        // the sublist is still a view of the (deserialized) parent
+        final List<String> deserializedParent = (List<String>) deserialized.get(0);
+        final List<String> deserializedSubList = (List<String>) deserialized.get(1);
+        deserializedSubList.set(0, "x");
+        assertSame( deserializedSubList.get(0), deserializedParent.get(1) );
+    }
+
+    @Test
+    public void testCopyWindowOnly () throws Exception {
+        final List<Integer> parent = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            parent.add(i);
+        }
+
+        for (final List<Integer> subList : Arrays.asList(parent.subList(500, 510), new LinkedList<Integer>(parent).subList(500, 510))) {
+            final Kryo kryo = new Kryo();
+            kryo.setRegistrationRequired(false);
+
+            final SubListSerializers.ArrayListSubListSerializer arrayListSerializer = new SubListSerializers.ArrayListSubListSerializer();
+            arrayListSerializer.setCopyWindowOnly(true);
+            kryo.addDefaultSerializer(SubListSerializers.ArrayListSubListSerializer.SUBLIST_CLASS, arrayListSerializer);
+
+            final SubListSerializers.AbstractListSubListSerializer abstractListSerializer = new SubListSerializers.AbstractListSubListSerializer();
+            abstractListSerializer.setCopyWindowOnly(true);
+            kryo.addDefaultSerializer(SubListSerializers.AbstractListSubListSerializer.SUBLIST_CLASS, abstractListSerializer);
+
+            final List<Integer> copy = kryo.copy( subList );
+            assertEquals( subList, copy );
+            assertSame( subList.getClass(), copy.getClass() );
+            assertEquals( copy.remove( 0 ), subList.remove( 0 ) );
+        }
+    }
+
+    /**
+     * A sublist that references its parent list (like the sublists of java 8), which might be another sublist.
+     */
+    static class ChainedSubList extends AbstractList<Integer> {
+        private final List<Integer> parent;
+        private final int offset;
+        private final int size;
+
+        ChainedSubList(final List<Integer> parent, final int fromIndex, final int toIndex) {
+            this.parent = parent;
+            this.offset = fromIndex;
+            this.size = toIndex - fromIndex;
+        }
+
+        @Override
+        public Integer get(final int index) {
+            return parent.get(offset + index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
     static enum TestEnum {
         ITEM1, ITEM2, ITEM3
     }
     
-    private static <T> ArrayList<T> arrayList(final T ... items) {
-        return new ArrayList<T>(Arrays.asList(items));
+    @SafeVarargs
+    private static final <T> ArrayList<T> arrayList(final T ... items) {
+        final ArrayList<T> result = new ArrayList<T>(items.length);
+        for (final T item : items) {
+            result.add(item);
+        }
+        return result;
     }
 
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers.bouncycastle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Test for {@link BigIntegerCodec}.
+ */
+public class BigIntegerCodecTest {
+
+    private static final int[] BIT_LENGTHS = {1, 7, 8, 9, 31, 32, 33, 63, 64, 65, 95, 96, 97, 127, 128, 129, 160, 255, 256, 257,
+                                              384, 521, 1023, 1024, 1025, 2047, 2048, 2049, 4096};
+
+    private final Random random = new Random(42);
+
+    /**
+     * @return a random positive value of exactly the specified bit length
+     */
+    private BigInteger positive(final int bitLength) {
+        return BigInteger.ONE.shiftLeft(bitLength - 1).or(new BigInteger(bitLength - 1, random));
+    }
+
+    private List<BigInteger> values() {
+        final List<BigInteger> values = new ArrayList<BigInteger>();
+        values.add(BigInteger.ZERO);
+        values.add(BigInteger.ONE);
+        values.add(BigInteger.ONE.negate());
+
+        for (final int bitLength : BIT_LENGTHS) {
+            for (int i = 0; i < 5; i++) {
+                final BigInteger value = positive(bitLength);
+                values.add(value);
+                values.add(value.negate());
+            }
+
+            // all bits set, and only the top bit set
+            values.add(BigInteger.ONE.shiftLeft(bitLength).subtract(BigInteger.ONE));
+            values.add(BigInteger.ONE.shiftLeft(bitLength - 1));
+        }
+        return values;
+    }
+
+    private static byte[] expected(final BigInteger value) {
+        final byte[] bytes = value.toByteArray();
+
+        final Output output = new Output(16, -1);
+        output.writeInt(bytes.length, true);
+        output.writeBytes(bytes);
+        return output.toBytes();
+    }
+
+    @Test
+    public void testWriteMatchesToByteArray() {
+        for (final BigInteger value : values()) {
+            final Output output = new Output(16, -1);
+            BigIntegerCodec.write(output, value);
+
+            assertArrayEquals(value.toString(16), expected(value), output.toBytes());
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final List<BigInteger> values = values();
+
+        final Output output = new Output(16, -1);
+        for (final BigInteger value : values) {
+            BigIntegerCodec.write(output, value);
+        }
+        final byte[] bytes = output.toBytes();
+
+        // one graph for all of them, so the scratch buffer is reused for shorter and longer values
+        final Kryo kryo = new Kryo();
+        Input input = new Input(bytes);
+        for (final BigInteger value : values) {
+            assertEquals(value, BigIntegerCodec.read(kryo, input));
+        }
+        assertEquals(input.limit(), input.position());
+
+        // without a Kryo instance, every value is read into a new array
+        input = new Input(bytes);
+        for (final BigInteger value : values) {
+            assertEquals(value, BigIntegerCodec.read(null, input));
+        }
+        assertEquals(input.limit(), input.position());
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers.bouncycastle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Test for {@link EccPublicKeySerializer} and {@link EccPrivateKeySerializer}.
+ */
+public class EccKeySerializersTest {
+
+    private final Random random = new Random(42);
+
+    private Kryo _kryo;
+    private EccPublicKeySerializer _publicKeySerializer;
+
+    @Before
+    public void beforeTest() {
+        _kryo = new Kryo();
+
+        _publicKeySerializer = new EccPublicKeySerializer();
+        _kryo.register(ECPublicKeyParameters.class, _publicKeySerializer);
+        _kryo.register(ECPrivateKeyParameters.class, new EccPrivateKeySerializer());
+    }
+
+    private static ECDomainParameters namedDomain(final String name) {
+        final X9ECParameters x9Curve = CustomNamedCurves.getByName(name);
+        return new ECDomainParameters(x9Curve.getCurve(), x9Curve.getG(), x9Curve.getN(), x9Curve.getH(), x9Curve.getSeed());
+    }
+
+    private static ECDomainParameters customDomain(final BigInteger a) {
+        return customDomain(a, ECCurve.COORD_JACOBIAN);
+    }
+
+    /**
+     * A curve that is not named: the field and G of secp256r1, with the specified 'a' (and 'b' so that G is on the curve).
+     */
+    private static ECDomainParameters customDomain(final BigInteger anyA, final int coordinateSystem) {
+        final X9ECParameters p256 = CustomNamedCurves.getByName("secp256r1");
+        final BigInteger q = p256.getCurve().getField().getCharacteristic();
+        final BigInteger a = anyA.mod(q);
+        final ECPoint g = p256.getG().normalize();
+        final BigInteger x = g.getAffineXCoord().toBigInteger();
+        final BigInteger y = g.getAffineYCoord().toBigInteger();
+        final BigInteger b = y.pow(2).subtract(x.pow(3)).subtract(a.multiply(x)).mod(q);
+
+        final ECCurve curve = new ECCurve.Fp(q, a, b, p256.getN(), BigInteger.ONE).configure()
+                                                                                .setCoordinateSystem(coordinateSystem)
+                                                                                .create();
+        return new ECDomainParameters(curve, curve.createPoint(x, y), p256.getN());
+    }
+
+    private ECPrivateKeyParameters privateKey(final ECDomainParameters domain) {
+        final BigInteger d = new BigInteger(domain.getN().bitLength() - 1, random).add(BigInteger.ONE);
+        return new ECPrivateKeyParameters(d, domain);
+    }
+
+    private static ECPublicKeyParameters publicKey(final ECPrivateKeyParameters privateKey) {
+        final ECDomainParameters domain = privateKey.getParameters();
+        return new ECPublicKeyParameters(domain.getG().multiply(privateKey.getD()).normalize(), domain);
+    }
+
+    private ECPublicKeyParameters publicKey(final ECDomainParameters domain) {
+        return publicKey(privateKey(domain));
+    }
+
+    private static void assertKeyEquals(final ECPublicKeyParameters expected, final ECPublicKeyParameters actual) {
+        assertEquals(expected.getParameters(), actual.getParameters());
+        assertEquals(expected.getQ(), actual.getQ());
+    }
+
+    private static void assertKeyEquals(final ECPrivateKeyParameters expected, final ECPrivateKeyParameters actual) {
+        assertEquals(expected.getParameters(), actual.getParameters());
+        assertEquals(expected.getD(), actual.getD());
+    }
+
+    private ECPublicKeyParameters readPublicKey(final byte[] bytes) {
+        final Input input = new Input(bytes);
+        final ECPublicKeyParameters key = _kryo.readObject(input, ECPublicKeyParameters.class);
+        assertEquals(bytes.length, input.position());
+        return key;
+    }
+
+    /**
+     * Reads with and without the decoded key cache, which parse the markers separately.
+     */
+    private void assertReadsPublicKey(final ECPublicKeyParameters expected, final byte[] bytes) {
+        _publicKeySerializer.setDecodedKeyCacheSize(0);
+        assertKeyEquals(expected, readPublicKey(bytes));
+
+        _publicKeySerializer.setDecodedKeyCacheSize(4);
+        assertKeyEquals(expected, readPublicKey(bytes));
+    }
+
+
+    private byte[] write(final Object key) {
+        final Output output = new Output(256, -1);
+        _kryo.writeObject(output, key);
+        return output.toBytes();
+    }
+
+    private int assertRoundTrip(final ECPrivateKeyParameters privateKey) {
+        final ECPublicKeyParameters publicKey = publicKey(privateKey);
+        final byte[] publicBytes = write(publicKey);
+
+        assertReadsPublicKey(publicKey, publicBytes);
+        assertKeyEquals(privateKey, _kryo.readObject(new Input(write(privateKey)), ECPrivateKeyParameters.class));
+        return publicBytes.length;
+    }
+
+    /**
+     * The curves in the registry are written as a one-byte ID, without N and G.
+     */
+    @Test
+    public void testRegistryCurve() {
+        for (final String name : new String[] {"curve25519", "secp256r1", "secp256k1", "secp521r1"}) {
+            final ECDomainParameters domain = namedDomain(name);
+            final int length = assertRoundTrip(privateKey(domain));
+
+            // the marker, the extended type, the ID + the length and the encoded Q
+            final int qLength = domain.getG().getEncoded(false).length;
+            assertEquals(name, 3 + Output.varIntLength(qLength, true) + qLength, length);
+        }
+    }
+
+    /**
+     * A named curve that is not in the registry (or is, but with a different G) is written by name or OID, with N and G.
+     */
+    @Test
+    public void testNamedCurveNotInRegistry() {
+        final ECDomainParameters secp160r1 = namedDomain("secp160r1");
+        final int length = assertRoundTrip(privateKey(secp160r1));
+        assertTrue(length > 2 * secp160r1.getG().getEncoded(false).length);
+
+        final ECDomainParameters p256 = namedDomain("secp256r1");
+        final ECDomainParameters otherG = new ECDomainParameters(p256.getCurve(), p256.getG().twice().normalize(), p256.getN());
+        assertRoundTrip(privateKey(otherG));
+    }
+
+    @Test
+    public void testCustomCurve() {
+        final int[] coordinateSystems = {ECCurve.COORD_AFFINE, ECCurve.COORD_HOMOGENEOUS, ECCurve.COORD_JACOBIAN,
+                                         ECCurve.COORD_JACOBIAN_MODIFIED};
+
+        for (final int coordinateSystem : coordinateSystems) {
+            final ECDomainParameters domain = customDomain(BigInteger.valueOf(-3), coordinateSystem);
+            assertRoundTrip(privateKey(domain));
+
+            final ECPublicKeyParameters key = EccPublicKeySerializer.read(new Input(write(publicKey(domain))));
+            assertEquals(coordinateSystem, key.getParameters().getCurve().getCoordinateSystem());
+        }
+    }
+
+    /**
+     * Compressed points are about half the size, and both forms are always readable.
+     */
+    @Test
+    public void testCompressedPoints() {
+        final ECDomainParameters[] domains = {namedDomain("secp256r1"), namedDomain("secp160r1"), customDomain(BigInteger.valueOf(-3))};
+
+        for (final ECDomainParameters domain : domains) {
+            final ECPublicKeyParameters key = publicKey(domain);
+
+            _publicKeySerializer.setCompressedPoints(false);
+            final byte[] uncompressed = write(key);
+            _publicKeySerializer.setCompressedPoints(true);
+            final byte[] compressed = write(key);
+
+            // Q, and G if the curve is not in the registry
+            final int points = domain == domains[0] ? 1 : 2;
+            final int coordinateLength = (domain.getCurve().getFieldSize() + 7) / 8;
+            assertEquals(uncompressed.length - points * coordinateLength, compressed.length);
+
+            final Output output = new Output(256, -1);
+            EccPublicKeySerializer.write(output, key, true);
+            assertArrayEquals(compressed, output.toBytes());
+
+            final byte[] encodedQ = key.getQ().getEncoded(true);
+            assertArrayEquals(encodedQ, Arrays.copyOfRange(compressed, compressed.length - encodedQ.length, compressed.length));
+
+            _publicKeySerializer.setCompressedPoints(false);
+            assertReadsPublicKey(key, compressed);
+            _publicKeySerializer.setCompressedPoints(true);
+            assertReadsPublicKey(key, uncompressed);
+        }
+    }
+
+    /**
+     * The point at infinity is encoded as the single byte 0.
+     */
+    @Test
+    public void testPointAtInfinity() {
+        final ECCurve curve = namedDomain("secp256r1").getCurve();
+
+        for (final boolean compressed : new boolean[] {false, true}) {
+            final Output output = new Output(16, -1);
+            EccPrivateKeySerializer.serializeECPoint(curve.getInfinity(), output, compressed);
+            assertArrayEquals(new byte[] {1, 0}, output.toBytes());
+
+            final Input input = new Input(output.toBytes());
+            final byte[] bytes = new byte[input.readInt(true)];
+            input.readBytes(bytes);
+            assertTrue(curve.decodePoint(bytes).isInfinity());
+        }
+    }
+
+    /**
+     * The standard domain parameters of a registry curve are implied, including the cofactor.
+     */
+    @Test
+    public void testRegistryCurveCofactor() {
+        final ECDomainParameters curve25519 = namedDomain("curve25519");
+        final ECPublicKeyParameters key = _kryo.readObject(new Input(write(publicKey(curve25519))), ECPublicKeyParameters.class);
+
+        assertEquals(BigInteger.valueOf(8), key.getParameters().getH());
+    }
+
+    @Test
+    public void testDecodedKeyCache() {
+        final ECPublicKeyParameters keyA = publicKey(namedDomain("secp256r1"));
+        final ECPublicKeyParameters keyB = publicKey(namedDomain("secp160r1"));
+        final ECPublicKeyParameters keyC = publicKey(customDomain(BigInteger.valueOf(-3)));
+        final byte[] bytesA = write(keyA);
+        final byte[] bytesB = write(keyB);
+        final byte[] bytesC = write(keyC);
+
+        _publicKeySerializer.setDecodedKeyCacheSize(2);
+        assertEquals(2, _publicKeySerializer.getDecodedKeyCacheSize());
+
+        // a hit returns the same instance, a different key is a miss
+        final ECPublicKeyParameters readA = readPublicKey(bytesA);
+        assertKeyEquals(keyA, readA);
+        assertSame(readA, readPublicKey(bytesA));
+
+        final ECPublicKeyParameters readB = readPublicKey(bytesB);
+        assertKeyEquals(keyB, readB);
+        assertNotSame(readA, readB);
+
+        // A was used more recently than B, so C evicts B
+        assertSame(readA, readPublicKey(bytesA));
+        final ECPublicKeyParameters readC = readPublicKey(bytesC);
+        assertKeyEquals(keyC, readC);
+
+        assertSame(readA, readPublicKey(bytesA));
+        assertSame(readC, readPublicKey(bytesC));
+        final ECPublicKeyParameters readB2 = readPublicKey(bytesB);
+        assertKeyEquals(keyB, readB2);
+        assertNotSame(readB, readB2);
+
+        // 0 disables the cache
+        _publicKeySerializer.setDecodedKeyCacheSize(0);
+        assertEquals(0, _publicKeySerializer.getDecodedKeyCacheSize());
+        assertNotSame(readPublicKey(bytesA), readPublicKey(bytesA));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeDecodedKeyCacheSize() {
+        _publicKeySerializer.setDecodedKeyCacheSize(-1);
+    }
+
+    // the format of the older versions, before the curve registry and the explicit marker for the entire curve
+
+    private static final int legacyUsesName = 1;
+    private static final int legacyUsesOid = 2;
+
+    private static void writeLegacyBigInteger(final Output output, final BigInteger value) {
+        final byte[] bytes = value.toByteArray();
+        output.writeInt(bytes.length, true);
+        output.writeBytes(bytes);
+    }
+
+    private static void writeLegacyDomain(final Output output, final ECDomainParameters domain, final int marker, final String id) {
+        if (marker == legacyUsesName || marker == legacyUsesOid) {
+            output.writeInt(marker, true);
+            output.writeString(id);
+        }
+        else {
+            // the entire curve, without a marker
+            final ECCurve curve = domain.getCurve();
+            writeLegacyBigInteger(output, curve.getA().toBigInteger());
+            writeLegacyBigInteger(output, curve.getB().toBigInteger());
+            writeLegacyBigInteger(output, curve.getOrder());
+            writeLegacyBigInteger(output, curve.getCofactor());
+            writeLegacyBigInteger(output, curve.getField().getCharacteristic());
+            output.writeInt(curve.getCoordinateSystem(), true);
+        }
+
+        writeLegacyBigInteger(output, domain.getN());
+        final byte[] g = domain.getG().getEncoded(false);
+        output.writeInt(g.length, true);
+        output.writeBytes(g);
+    }
+
+    private static byte[] writeLegacy(final ECPublicKeyParameters key, final int marker, final String id) {
+        final Output output = new Output(256, -1);
+        writeLegacyDomain(output, key.getParameters(), marker, id);
+        final byte[] q = key.getQ().getEncoded(false);
+        output.writeInt(q.length, true);
+        output.writeBytes(q);
+        return output.toBytes();
+    }
+
+    private static byte[] writeLegacy(final ECPrivateKeyParameters key, final int marker, final String id) {
+        final Output output = new Output(256, -1);
+        writeLegacyDomain(output, key.getParameters(), marker, id);
+        writeLegacyBigInteger(output, key.getD());
+        return output.toBytes();
+    }
+
+    @Test
+    public void testReadLegacyName() {
+        final ECPrivateKeyParameters privateKey = privateKey(namedDomain("curve25519"));
+
+        assertReadsPublicKey(publicKey(privateKey), writeLegacy(publicKey(privateKey), legacyUsesName, "Curve25519"));
+        assertKeyEquals(privateKey, EccPrivateKeySerializer.read(new Input(writeLegacy(privateKey, legacyUsesName, "Curve25519"))));
+    }
+
+    @Test
+    public void testReadLegacyOid() {
+        // secp256r1 (in the registry) and secp160r1 (not in the registry)
+        final String[][] curves = {{"secp256r1", "1.2.840.10045.3.1.7"}, {"secp160r1", "1.3.132.0.8"}};
+
+        for (final String[] curve : curves) {
+            final ECPrivateKeyParameters privateKey = privateKey(namedDomain(curve[0]));
+
+            assertReadsPublicKey(publicKey(privateKey), writeLegacy(publicKey(privateKey), legacyUsesOid, curve[1]));
+            assertKeyEquals(privateKey, EccPrivateKeySerializer.read(new Input(writeLegacy(privateKey, legacyUsesOid, curve[1]))));
+        }
+    }
+
+    private static Map<?, ?> curveCache(final String name) throws Exception {
+        final Field field = EccPrivateKeySerializer.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return (Map<?, ?>) field.get(null);
+    }
+
+    private static void assertUnknownCurve(final ECPrivateKeyParameters privateKey, final int marker, final String id) {
+        try {
+            EccPrivateKeySerializer.read(new Input(writeLegacy(privateKey, marker, id)));
+            fail(id);
+        } catch (KryoException ignored) {
+        }
+    }
+
+    /**
+     * The names and OIDs are read from the wire, so only the canonical names and OIDs of the known curves may be cached.
+     */
+    @Test
+    public void testCurveCachesAreBounded() throws Exception {
+        final Map<?, ?> curvesByName = curveCache("curvesByName");
+        final Map<?, ?> curvesByOid = curveCache("curvesByOid");
+
+        final ECPrivateKeyParameters curve25519Key = privateKey(namedDomain("curve25519"));
+        final ECPrivateKeyParameters secp160r1Key = privateKey(namedDomain("secp160r1"));
+        EccPrivateKeySerializer.read(new Input(writeLegacy(curve25519Key, legacyUsesName, "curve25519")));
+        EccPrivateKeySerializer.read(new Input(writeLegacy(secp160r1Key, legacyUsesOid, "1.3.132.0.8")));
+
+        final Set<Object> names = new HashSet<Object>(curvesByName.keySet());
+        final Set<Object> oids = new HashSet<Object>(curvesByOid.keySet());
+        assertTrue(names.contains("curve25519"));
+        assertTrue(oids.contains("1.3.132.0.8"));
+
+        for (final String name : new String[] {"Curve25519", "CURVE25519", "cUrVe25519"}) {
+            assertKeyEquals(curve25519Key, EccPrivateKeySerializer.read(new Input(writeLegacy(curve25519Key, legacyUsesName, name))));
+        }
+        assertUnknownCurve(curve25519Key, legacyUsesName, "curve25519x");
+        assertUnknownCurve(secp160r1Key, legacyUsesOid, "1.2.3.4");
+        assertUnknownCurve(secp160r1Key, legacyUsesOid, "not an oid");
+
+        assertEquals(names, curvesByName.keySet());
+        assertEquals(oids, curvesByOid.keySet());
+    }
+
+    /**
+     * The entire curve without a marker starts with the length of 'a', which must not be mistaken for a marker. 3 is the
+     * length that collided with the marker for a registry ID.
+     */
+    @Test
+    public void testReadLegacyCurve() {
+        final BigInteger[] as = {BigInteger.valueOf(0x010000), BigInteger.valueOf(0x01000000), BigInteger.valueOf(-3)};
+
+        for (final BigInteger a : as) {
+            final ECDomainParameters domain = customDomain(a);
+            final ECPrivateKeyParameters privateKey = privateKey(domain);
+            final byte[] publicBytes = writeLegacy(publicKey(privateKey), 0, null);
+            final byte[] privateBytes = writeLegacy(privateKey, 0, null);
+
+            assertEquals(domain.getCurve().getA().toBigInteger().toByteArray().length, publicBytes[0]);
+
+            assertReadsPublicKey(publicKey(privateKey), publicBytes);
+            assertKeyEquals(privateKey, EccPrivateKeySerializer.read(new Input(privateBytes)));
+        }
+    }
+
+    /**
+     * The registry ID and the entire curve both start with 0, which is never a length of 'a' in the older format.
+     */
+    @Test
+    public void testExtendedMarker() {
+        final Output output = new Output(256, -1);
+        EccPublicKeySerializer.write(output, publicKey(namedDomain("secp256k1")));
+        final byte[] registryBytes = output.toBytes();
+        assertEquals(0, registryBytes[0]);
+        assertEquals(1, registryBytes[1]);
+        assertEquals(4, registryBytes[2]); // secp256k1
+
+        output.reset();
+        EccPublicKeySerializer.write(output, publicKey(customDomain(BigInteger.valueOf(0x010000))));
+        final byte[] curveBytes = output.toBytes();
+        assertEquals(0, curveBytes[0]);
+        assertEquals(0, curveBytes[1]);
+        assertEquals(3, curveBytes[2]); // the length of 'a'
+
+        // an unknown extended type
+        final byte[] unknown = registryBytes.clone();
+        unknown[1] = 5;
+        try {
+            EccPublicKeySerializer.read(new Input(unknown));
+            fail("Expected a KryoException");
+        } catch (final KryoException expected) {
+        }
+
+        _publicKeySerializer.setDecodedKeyCacheSize(4);
+        try {
+            readPublicKey(unknown);
+            fail("Expected a KryoException");
+        } catch (final KryoException expected) {
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.serializers.bouncycastle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.bouncycastle.crypto.params.RSAKeyParameters;
+import org.bouncycastle.crypto.params.RSAPrivateCrtKeyParameters;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Test for {@link RsaPublicKeySerializer} and {@link RsaPrivateKeySerializer}.
+ */
+public class RsaKeySerializersTest {
+
+    private static RSAKeyParameters publicKey;
+    private static RSAPrivateCrtKeyParameters privateKey;
+
+    private Kryo _kryo;
+    private RsaPublicKeySerializer _publicKeySerializer;
+
+    @BeforeClass
+    public static void beforeClass() {
+        final RSAKeyPairGenerator generator = new RSAKeyPairGenerator();
+        generator.init(new RSAKeyGenerationParameters(BigInteger.valueOf(65537), new SecureRandom(), 2048, 80));
+
+        final AsymmetricCipherKeyPair keyPair = generator.generateKeyPair();
+        publicKey = (RSAKeyParameters) keyPair.getPublic();
+        privateKey = (RSAPrivateCrtKeyParameters) keyPair.getPrivate();
+    }
+
+    @Before
+    public void beforeTest() {
+        _kryo = new Kryo();
+
+        _publicKeySerializer = new RsaPublicKeySerializer();
+        _kryo.register(RSAKeyParameters.class, _publicKeySerializer);
+        _kryo.register(RSAPrivateCrtKeyParameters.class, new RsaPrivateKeySerializer());
+    }
+
+    private byte[] write(final Object key) {
+        final Output output = new Output(256, -1);
+        _kryo.writeObject(output, key);
+        return output.toBytes();
+    }
+
+    private <T> T read(final byte[] bytes, final Class<T> type) {
+        final Input input = new Input(bytes);
+        final T key = _kryo.readObject(input, type);
+        assertEquals(bytes.length, input.position());
+        return key;
+    }
+
+    /**
+     * The length + the bytes of {@link BigInteger#toByteArray()} of every value, which is also what the older versions wrote.
+     */
+    private static byte[] expected(final BigInteger... values) {
+        final Output output = new Output(256, -1);
+        for (final BigInteger value : values) {
+            final byte[] bytes = value.toByteArray();
+            output.writeInt(bytes.length, true);
+            output.writeBytes(bytes);
+        }
+        return output.toBytes();
+    }
+
+    private static void assertKeyEquals(final RSAKeyParameters expected, final RSAKeyParameters actual) {
+        assertFalse(actual.isPrivate());
+        assertEquals(expected.getModulus(), actual.getModulus());
+        assertEquals(expected.getExponent(), actual.getExponent());
+    }
+
+    @Test
+    public void testPublicKey() {
+        final byte[] bytes = write(publicKey);
+        assertArrayEquals(expected(publicKey.getModulus(), publicKey.getExponent()), bytes);
+
+        assertKeyEquals(publicKey, read(bytes, RSAKeyParameters.class));
+    }
+
+    @Test
+    public void testPrivateKey() {
+        final byte[] bytes = write(privateKey);
+        assertArrayEquals(expected(privateKey.getDP(), privateKey.getDQ(), privateKey.getExponent(), privateKey.getModulus(),
+                                   privateKey.getP(), privateKey.getPublicExponent(), privateKey.getQ(), privateKey.getQInv()),
+                          bytes);
+
+        final RSAPrivateCrtKeyParameters key = read(bytes, RSAPrivateCrtKeyParameters.class);
+        assertEquals(privateKey.getModulus(), key.getModulus());
+        assertEquals(privateKey.getPublicExponent(), key.getPublicExponent());
+        assertEquals(privateKey.getExponent(), key.getExponent());
+        assertEquals(privateKey.getP(), key.getP());
+        assertEquals(privateKey.getQ(), key.getQ());
+        assertEquals(privateKey.getDP(), key.getDP());
+        assertEquals(privateKey.getDQ(), key.getDQ());
+        assertEquals(privateKey.getQInv(), key.getQInv());
+    }
+
+    @Test
+    public void testDecodedKeyCache() {
+        // the same modulus, but different (public) exponents
+        final RSAKeyParameters keyA = publicKey;
+        final RSAKeyParameters keyB = new RSAKeyParameters(false, publicKey.getModulus(), BigInteger.valueOf(3));
+        final RSAKeyParameters keyC = new RSAKeyParameters(false, publicKey.getModulus(), BigInteger.valueOf(17));
+        final byte[] bytesA = write(keyA);
+        final byte[] bytesB = write(keyB);
+        final byte[] bytesC = write(keyC);
+
+        _publicKeySerializer.setDecodedKeyCacheSize(2);
+        assertEquals(2, _publicKeySerializer.getDecodedKeyCacheSize());
+
+        // a hit returns the same instance, a different key is a miss
+        final RSAKeyParameters readA = read(bytesA, RSAKeyParameters.class);
+        assertKeyEquals(keyA, readA);
+        assertSame(readA, read(bytesA, RSAKeyParameters.class));
+
+        final RSAKeyParameters readB = read(bytesB, RSAKeyParameters.class);
+        assertKeyEquals(keyB, readB);
+        assertNotSame(readA, readB);
+
+        // A was used more recently than B, so C evicts B
+        assertSame(readA, read(bytesA, RSAKeyParameters.class));
+        final RSAKeyParameters readC = read(bytesC, RSAKeyParameters.class);
+        assertKeyEquals(keyC, readC);
+
+        assertSame(readA, read(bytesA, RSAKeyParameters.class));
+        assertSame(readC, read(bytesC, RSAKeyParameters.class));
+        final RSAKeyParameters readB2 = read(bytesB, RSAKeyParameters.class);
+        assertKeyEquals(keyB, readB2);
+        assertNotSame(readB, readB2);
+
+        // 0 disables the cache
+        _publicKeySerializer.setDecodedKeyCacheSize(0);
+        assertEquals(0, _publicKeySerializer.getDecodedKeyCacheSize());
+        assertNotSame(read(bytesA, RSAKeyParameters.class), read(bytesA, RSAKeyParameters.class));
+    }
+
+    /**
+     * One serializer (with its cache) is shared by the Kryo instances of different threads.
+     */
+    @Test
+    public void testDecodedKeyCacheAcrossThreads() throws Exception {
+        final RsaPublicKeySerializer serializer = new RsaPublicKeySerializer();
+        serializer.setDecodedKeyCacheSize(2);
+
+        final RSAKeyParameters[] keys = {publicKey,
+                                         new RSAKeyParameters(false, publicKey.getModulus(), BigInteger.valueOf(3)),
+                                         new RSAKeyParameters(false, publicKey.getModulus(), BigInteger.valueOf(17))};
+        final byte[][] bytes = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            bytes[i] = write(keys[i]);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        final Kryo kryo = new Kryo();
+                        kryo.register(RSAKeyParameters.class, serializer);
+
+                        // 3 keys and a cache of 2, so there are hits and misses (and evictions)
+                        for (int j = 0; j < 1000; j++) {
+                            final int index = j % keys.length;
+                            assertKeyEquals(keys[index], kryo.readObject(new Input(bytes[index]), RSAKeyParameters.class));
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (final Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeDecodedKeyCacheSize() {
+        _publicKeySerializer.setDecodedKeyCacheSize(-1);
+    }
+}